@@ -0,0 +1,275 @@
+package com.pkmmte.pkrss;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.text.TextUtils;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SQLite store of loaded articles by feed, so they can be shown on a cold start before
+ * the network is involved. Articles are kept once per feed & ID, in the order they were first
+ * inserted, along with the last loaded page of each feed. Only the newest articles are kept
+ * once a feed or the whole store grows past its limit. <p> <b>Warning:</b> <i>Extra article properties
+ * will not be saved!</i>
+ * <p>
+ * Like {@link FavoriteDatabase}, a single connection is kept open in write-ahead logging mode
+ * and access is serialized on this instance.
+ */
+class ArticleStore extends SQLiteOpenHelper {
+	// Basic Database Info
+	private static final int DATABASE_VERSION = 2;
+	private static final String DATABASE_NAME = "db.pkrss.articles";
+	private static final String TABLE_ARTICLES = "articles";
+	private static final String TABLE_FEEDS = "feeds";
+
+	// Oldest articles beyond these counts are dropped
+	private static final int MAX_FEED_ARTICLES = 1000;
+	private static final int MAX_ARTICLES = 10000;
+
+	// Column Keys
+	private static final String KEY_URL = "URL";
+	private static final String KEY_POSITION = "POSITION";
+	private static final String KEY_PAGE = "PAGE";
+	private static final String KEY_TAGS = "TAGS";
+	private static final String KEY_SOURCE = "SOURCE";
+	private static final String KEY_IMAGE = "IMAGE";
+	private static final String KEY_TITLE = "TITLE";
+	private static final String KEY_DESCRIPTION = "DESCRIPTION";
+	private static final String KEY_CONTENT = "CONTENT";
+	private static final String KEY_COMMENTS = "COMMENTS";
+	private static final String KEY_AUTHOR = "AUTHOR";
+	private static final String KEY_DATE = "DATE";
+	private static final String KEY_ID = "ID";
+	private static final String KEY_ENCLOSURE_URL = "ENCLOSURE_URL";
+	private static final String KEY_ENCLOSURE_LENGTH = "ENCLOSURE_LENGTH";
+	private static final String KEY_ENCLOSURE_TYPE = "ENCLOSURE_TYPE";
+
+	private static final String[] COLUMNS = {KEY_TAGS, KEY_SOURCE, KEY_IMAGE, KEY_TITLE, KEY_DESCRIPTION, KEY_CONTENT, KEY_COMMENTS, KEY_AUTHOR,
+		KEY_DATE, KEY_ID, KEY_ENCLOSURE_URL, KEY_ENCLOSURE_LENGTH, KEY_ENCLOSURE_TYPE};
+
+	// Long-lived connection & its compiled statements, guarded by this
+	private SQLiteDatabase database;
+	private SQLiteStatement insertStatement;
+	private SQLiteStatement updateStatement;
+	private SQLiteStatement positionStatement;
+	private SQLiteStatement firstPositionStatement;
+	private SQLiteStatement pageStatement;
+
+	ArticleStore(Context context) {
+		super(context, DATABASE_NAME, null, DATABASE_VERSION);
+	}
+
+	/**
+	 * @return The shared connection, opening it & compiling statements first if needed.
+	 */
+	private SQLiteDatabase getDatabase() {
+		if (database == null || !database.isOpen()) {
+			database = getWritableDatabase();
+			database.enableWriteAheadLogging();
+			insertStatement = database.compileStatement("INSERT INTO " + TABLE_ARTICLES + " (" + KEY_URL + ", " + KEY_POSITION + ", "
+				+ TextUtils.join(", ", COLUMNS) + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+			// Numbered parameters share the insert statement's bindings, keeping the first position
+			updateStatement = database.compileStatement("UPDATE " + TABLE_ARTICLES + " SET " + KEY_TAGS + " = ?3, " + KEY_SOURCE + " = ?4, "
+				+ KEY_IMAGE + " = ?5, " + KEY_TITLE + " = ?6, " + KEY_DESCRIPTION + " = ?7, " + KEY_CONTENT + " = ?8, " + KEY_COMMENTS + " = ?9, "
+				+ KEY_AUTHOR + " = ?10, " + KEY_DATE + " = ?11, " + KEY_ENCLOSURE_URL + " = ?13, " + KEY_ENCLOSURE_LENGTH + " = ?14, "
+				+ KEY_ENCLOSURE_TYPE + " = ?15 WHERE " + KEY_URL + " = ?1 AND " + KEY_ID + " = ?12");
+			positionStatement = database.compileStatement("SELECT COALESCE(MAX(" + KEY_POSITION + ") + 1, 0) FROM " + TABLE_ARTICLES
+				+ " WHERE " + KEY_URL + " = ?");
+			firstPositionStatement = database.compileStatement("SELECT COALESCE(MIN(" + KEY_POSITION + "), 0) FROM " + TABLE_ARTICLES
+				+ " WHERE " + KEY_URL + " = ?");
+			pageStatement = database.compileStatement("INSERT OR REPLACE INTO " + TABLE_FEEDS + " (" + KEY_URL + ", " + KEY_PAGE + ") VALUES (?, ?)");
+		}
+		return database;
+	}
+
+	@Override
+	public synchronized void close() {
+		if (database != null) {
+			insertStatement.close();
+			updateStatement.close();
+			positionStatement.close();
+			firstPositionStatement.close();
+			pageStatement.close();
+			database = null;
+		}
+		super.close();
+	}
+
+	@Override
+	public void onCreate(SQLiteDatabase db) {
+		db.execSQL("CREATE TABLE " + TABLE_FEEDS + " ( " + KEY_URL + " TEXT PRIMARY KEY , " + KEY_PAGE + " INTEGER NOT NULL )");
+		db.execSQL("CREATE TABLE " + TABLE_ARTICLES + " ( "
+			+ KEY_URL + " TEXT NOT NULL , "
+			+ KEY_POSITION + " INTEGER NOT NULL , "
+			+ KEY_TAGS + " TEXT , "
+			+ KEY_SOURCE + " TEXT , "
+			+ KEY_IMAGE + " TEXT , "
+			+ KEY_TITLE + " TEXT , "
+			+ KEY_DESCRIPTION + " TEXT , "
+			+ KEY_CONTENT + " TEXT , "
+			+ KEY_COMMENTS + " TEXT , "
+			+ KEY_AUTHOR + " TEXT , "
+			+ KEY_DATE + " INTEGER , "
+			+ KEY_ID + " INTEGER NOT NULL , "
+			+ KEY_ENCLOSURE_URL + " TEXT , "
+			+ KEY_ENCLOSURE_LENGTH + " TEXT , "
+			+ KEY_ENCLOSURE_TYPE + " TEXT , "
+			+ "PRIMARY KEY (" + KEY_URL + ", " + KEY_ID + ") )");
+		db.execSQL("CREATE INDEX " + TABLE_ARTICLES + "_" + KEY_POSITION + " ON " + TABLE_ARTICLES + " (" + KEY_URL + ", " + KEY_POSITION + ")");
+		db.execSQL("CREATE INDEX " + TABLE_ARTICLES + "_" + KEY_DATE + " ON " + TABLE_ARTICLES + " (" + KEY_DATE + ")");
+	}
+
+	@Override
+	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+		// Only ever holds copies of network content
+		db.execSQL("DROP TABLE IF EXISTS " + TABLE_ARTICLES);
+		db.execSQL("DROP TABLE IF EXISTS " + TABLE_FEEDS);
+		onCreate(db);
+	}
+
+	/**
+	 * Stores articles of a feed after or before those stored before, in a single transaction.
+	 * Articles already stored for this feed are updated in place.
+	 * @param url Safe URL of the feed.
+	 * @param page Last loaded page of the feed.
+	 * @param articles Articles to store.
+	 * @param replace Whether to drop articles stored before for this feed.
+	 * @param prepend Whether to store the articles before those stored before instead of after them.
+	 */
+	public synchronized void put(String url, int page, List<Article> articles, boolean replace, boolean prepend) {
+		SQLiteDatabase db = getDatabase();
+		db.beginTransactionNonExclusive();
+		try {
+			if (replace)
+				db.delete(TABLE_ARTICLES, KEY_URL + " = ?", new String[] {url});
+
+			long position;
+			if (prepend) {
+				firstPositionStatement.bindString(1, url);
+				position = firstPositionStatement.simpleQueryForLong() - articles.size();
+			} else {
+				positionStatement.bindString(1, url);
+				position = positionStatement.simpleQueryForLong();
+			}
+			for (Article article : articles) {
+				updateStatement.bindString(1, url);
+				bindArticle(updateStatement, article);
+				if (updateStatement.executeUpdateDelete() > 0)
+					continue;
+
+				insertStatement.bindString(1, url);
+				insertStatement.bindLong(2, position++);
+				bindArticle(insertStatement, article);
+				insertStatement.executeInsert();
+			}
+
+			pageStatement.bindString(1, url);
+			pageStatement.bindLong(2, page);
+			pageStatement.executeInsert();
+
+			// Keep the newest articles of this feed, then of the whole store
+			db.execSQL("DELETE FROM " + TABLE_ARTICLES + " WHERE " + KEY_URL + " = ? AND " + KEY_ID + " NOT IN (SELECT " + KEY_ID + " FROM "
+				+ TABLE_ARTICLES + " WHERE " + KEY_URL + " = ? ORDER BY " + KEY_DATE + " DESC LIMIT " + MAX_FEED_ARTICLES + ")", new Object[] {url, url});
+			db.execSQL("DELETE FROM " + TABLE_ARTICLES + " WHERE rowid IN (SELECT rowid FROM " + TABLE_ARTICLES + " ORDER BY " + KEY_DATE
+				+ " DESC LIMIT -1 OFFSET " + MAX_ARTICLES + ")");
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	/**
+	 * @param url Safe URL of the feed.
+	 * @return Stored articles of this feed in insertion order, or null if it was never stored.
+	 */
+	public synchronized List<Article> get(String url) {
+		Cursor cursor = getDatabase().query(TABLE_ARTICLES, COLUMNS, KEY_URL + " = ?", new String[] {url}, null, null, KEY_POSITION);
+		try {
+			if (cursor.getCount() == 0)
+				return null;
+
+			List<Article> articles = new ArrayList<Article>(cursor.getCount());
+			while (cursor.moveToNext())
+				articles.add(readArticle(cursor));
+			return articles;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * @param url Safe URL of the feed.
+	 * @return Last loaded page of this feed, 0 if it was never stored.
+	 */
+	public synchronized int getPage(String url) {
+		Cursor cursor = getDatabase().query(TABLE_FEEDS, new String[] {KEY_PAGE}, KEY_URL + " = ?", new String[] {url}, null, null, null);
+		try {
+			return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Removes every stored article.
+	 */
+	public synchronized void deleteAll() {
+		SQLiteDatabase db = getDatabase();
+		db.delete(TABLE_ARTICLES, null, null);
+		db.delete(TABLE_FEEDS, null, null);
+	}
+
+	private static void bindArticle(SQLiteStatement statement, Article article) {
+		// Offset past the URL & position columns, null values included as bindings persist between executions
+		bindString(statement, 3, article.getTags() == null ? null : TextUtils.join("_PCX_", article.getTags()));
+		bindString(statement, 4, article.getSource() == null ? null : article.getSource().toString());
+		bindString(statement, 5, article.getImage() == null ? null : article.getImage().toString());
+		bindString(statement, 6, article.getTitle());
+		bindString(statement, 7, article.getDescription());
+		bindString(statement, 8, article.getContent());
+		bindString(statement, 9, article.getComments());
+		bindString(statement, 10, article.getAuthor());
+		statement.bindLong(11, article.getDate());
+		statement.bindLong(12, article.getId());
+
+		Enclosure enclosure = article.getEnclosure();
+		bindString(statement, 13, enclosure == null ? null : enclosure.getUrl());
+		bindString(statement, 14, enclosure == null ? null : getLength(enclosure));
+		bindString(statement, 15, enclosure == null ? null : enclosure.getMimeType());
+	}
+
+	private static Article readArticle(Cursor cursor) {
+		String tags = cursor.getString(0);
+		String source = cursor.getString(1);
+		String image = cursor.getString(2);
+		Article article = new Article(null, tags == null ? new ArrayList<String>() : new ArrayList<String>(Arrays.asList(tags.split("_PCX_"))),
+		                              source == null ? null : Uri.parse(source), image == null ? null : Uri.parse(image), cursor.getString(3),
+		                              cursor.getString(4), cursor.getString(5), cursor.getString(6), cursor.getString(7), cursor.getLong(8),
+		                              cursor.getInt(9));
+		if (!cursor.isNull(10) || !cursor.isNull(11) || !cursor.isNull(12))
+			article.setEnclosure(new Enclosure(cursor.getString(10), cursor.getString(11), cursor.getString(12)));
+		return article;
+	}
+
+	private static String getLength(Enclosure enclosure) {
+		try {
+			return String.valueOf(enclosure.getLength());
+		} catch (Exception e) {
+			// Length wasn't a number to begin with
+			return null;
+		}
+	}
+
+	private static void bindString(SQLiteStatement statement, int index, String value) {
+		if (value == null)
+			statement.bindNull(index);
+		else
+			statement.bindString(index, value);
+	}
+}
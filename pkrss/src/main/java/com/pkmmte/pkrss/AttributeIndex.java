@@ -0,0 +1,149 @@
+package com.pkmmte.pkrss;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Secondary indexes from tags & authors to the IDs of the loaded articles carrying them,
+ * so filtered lists cost time proportional to their size instead of a scan of every feed.
+ * <p>
+ * Keys are matched case-insensitively and interned, so the many articles sharing a tag or
+ * author share a single key. Articles are reference counted as the same article may be
+ * loaded into several feeds, and only drop out of the indexes once removed from all of them.
+ * The latest copy of an article added under an ID is the one indexed & returned.
+ */
+class AttributeIndex {
+	private final Map<String, IntHashSet> tags = new HashMap<String, IntHashSet>();
+	private final Map<String, IntHashSet> authors = new HashMap<String, IntHashSet>();
+	private final Map<String, String> keys = new HashMap<String, String>();
+	private final Map<Integer, Entry> entries = new HashMap<Integer, Entry>();
+
+	/**
+	 * Indexes the passed articles, as newly inserted into a feed.
+	 */
+	synchronized void add(Collection<Article> articles) {
+		for (Article article : articles) {
+			Entry entry = entries.get(article.getId());
+			if (entry == null) {
+				entries.put(article.getId(), new Entry(article));
+				index(article, true);
+			} else {
+				// Newer copies may have changed their tags or author
+				entry.count++;
+				if (entry.article != article) {
+					index(entry.article, false);
+					entry.article = article;
+					index(article, true);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes the passed articles, as evicted from a feed.
+	 */
+	synchronized void remove(Collection<Article> articles) {
+		for (Article article : articles) {
+			Entry entry = entries.get(article.getId());
+			if (entry != null && --entry.count == 0) {
+				entries.remove(article.getId());
+				index(entry.article, false);
+			}
+		}
+	}
+
+	/**
+	 * @return {@code true} if an article with the passed ID is loaded into any feed.
+	 */
+	synchronized boolean contains(int id) {
+		return entries.containsKey(id);
+	}
+
+	/**
+	 * @return Loaded articles tagged with the passed tag, in no particular order.
+	 */
+	synchronized List<Article> getByTag(String tag) {
+		return get(tags, tag);
+	}
+
+	/**
+	 * @return Loaded articles written by the passed author, in no particular order.
+	 */
+	synchronized List<Article> getByAuthor(String author) {
+		return get(authors, author);
+	}
+
+	private List<Article> get(Map<String, IntHashSet> index, String key) {
+		IntHashSet ids = key == null ? null : index.get(normalize(key));
+		if (ids == null)
+			return new ArrayList<Article>(0);
+
+		int[] values = ids.toArray();
+		List<Article> articles = new ArrayList<Article>(values.length);
+		for (int id : values)
+			articles.add(entries.get(id).article);
+		return articles;
+	}
+
+	private void index(Article article, boolean add) {
+		if (article.getTags() != null) {
+			for (String tag : article.getTags())
+				update(tags, tag, article.getId(), add);
+		}
+		update(authors, article.getAuthor(), article.getId(), add);
+	}
+
+	private void update(Map<String, IntHashSet> index, String value, int id, boolean add) {
+		if (value == null)
+			return;
+
+		String key = normalize(value);
+		if (key.length() == 0)
+			return;
+
+		IntHashSet ids = index.get(key);
+		if (add) {
+			if (ids == null) {
+				ids = new IntHashSet(4);
+				index.put(intern(key), ids);
+			}
+			ids.add(id);
+		} else if (ids != null) {
+			ids.remove(id);
+			if (ids.size() == 0) {
+				index.remove(key);
+				if (!tags.containsKey(key) && !authors.containsKey(key))
+					keys.remove(key);
+			}
+		}
+	}
+
+	private String intern(String key) {
+		String interned = keys.get(key);
+		if (interned == null) {
+			interned = key;
+			keys.put(key, key);
+		}
+		return interned;
+	}
+
+	private static String normalize(String value) {
+		return value.trim().toLowerCase(Locale.US);
+	}
+
+	/**
+	 * The indexed copy of an article & the number of times it was added.
+	 */
+	private static class Entry {
+		Article article;
+		int count = 1;
+
+		Entry(Article article) {
+			this.article = article;
+		}
+	}
+}
@@ -0,0 +1,32 @@
+package com.pkmmte.pkrss;
+
+import android.os.Process;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates daemon threads running at background priority, for work which must never
+ * compete with feed loads or the UI.
+ */
+class BackgroundThreadFactory implements ThreadFactory {
+	private final String name;
+	private final AtomicInteger count = new AtomicInteger();
+
+	BackgroundThreadFactory(String name) {
+		this.name = name;
+	}
+
+	@Override
+	public Thread newThread(final Runnable runnable) {
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+				runnable.run();
+			}
+		}, name + '-' + count.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	}
+}
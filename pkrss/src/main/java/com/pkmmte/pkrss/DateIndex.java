@@ -0,0 +1,165 @@
+package com.pkmmte.pkrss;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps the articles of every feed sorted newest first, so timelines merged across many
+ * feeds cost time proportional to the page size rather than to the number of articles.
+ * <p>
+ * Articles are ordered by date, then by ID to break ties, which also places copies of the
+ * same article loaded into several feeds next to each other in a merged timeline. Newly
+ * inserted articles are sorted on their own and merged into their feed's list.
+ */
+class DateIndex {
+	// Newest first, ties broken by ID
+	private static final Comparator<Article> ORDER = new Comparator<Article>() {
+		@Override
+		public int compare(Article lhs, Article rhs) {
+			return DateIndex.compare(lhs.getDate(), lhs.getId(), rhs.getDate(), rhs.getId());
+		}
+	};
+
+	private final Map<String, List<Article>> feeds = new HashMap<String, List<Article>>();
+
+	/**
+	 * Merges newly inserted articles into the sorted list of their feed.
+	 */
+	synchronized void add(String url, Collection<Article> articles) {
+		List<Article> added = new ArrayList<Article>(articles);
+		Collections.sort(added, ORDER);
+
+		List<Article> current = feeds.get(url);
+		if (current == null || current.isEmpty()) {
+			feeds.put(url, added);
+			return;
+		}
+
+		List<Article> merged = new ArrayList<Article>(current.size() + added.size());
+		int i = 0;
+		int j = 0;
+		while (i < current.size() && j < added.size())
+			merged.add(ORDER.compare(current.get(i), added.get(j)) <= 0 ? current.get(i++) : added.get(j++));
+		merged.addAll(current.subList(i, current.size()));
+		merged.addAll(added.subList(j, added.size()));
+		feeds.put(url, merged);
+	}
+
+	/**
+	 * Drops the articles of a feed, as evicted from memory.
+	 */
+	synchronized void remove(String url) {
+		feeds.remove(url);
+	}
+
+	/**
+	 * Merges the sorted lists of the passed feeds into one page.
+	 * @param urls Safe URLs of the feeds to merge, null for every feed.
+	 * @param since Oldest article date to include.
+	 * @param limit Maximum number of articles in the page.
+	 * @param cursor Cursor returned along with the previous page or null for the first page.
+	 * @return The requested page.
+	 */
+	synchronized TimelinePage timeline(Collection<String> urls, long since, int limit, String cursor) {
+		if (limit <= 0)
+			throw new IllegalArgumentException("Limit must be positive");
+
+		// Articles must come strictly after the cursor
+		long afterDate = Long.MAX_VALUE;
+		int afterId = Integer.MAX_VALUE;
+		boolean hasCursor = cursor != null;
+		if (hasCursor) {
+			String[] keys = cursor.split(":");
+			try {
+				if (keys.length != 3 || !keys[0].equals("t"))
+					throw new NumberFormatException();
+				afterDate = Long.parseLong(keys[1]);
+				afterId = Integer.parseInt(keys[2]);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid cursor " + cursor);
+			}
+		}
+
+		// Start every feed right after the cursor
+		PriorityQueue<Head> heads = new PriorityQueue<Head>();
+		for (String url : urls == null ? feeds.keySet() : urls) {
+			List<Article> articles = feeds.get(url);
+			if (articles == null)
+				continue;
+
+			int start = hasCursor ? search(articles, afterDate, afterId) : 0;
+			if (start < articles.size() && articles.get(start).getDate() >= since)
+				heads.add(new Head(articles, start));
+		}
+
+		List<Article> page = new ArrayList<Article>(Math.min(limit, 64));
+		Article last = null;
+		while (!heads.isEmpty()) {
+			Head head = heads.poll();
+			Article article = head.current();
+
+			// Copies of an article loaded into several feeds are adjacent, keep the first
+			if (last == null || last.getId() != article.getId() || last.getDate() != article.getDate()) {
+				if (page.size() == limit)
+					return new TimelinePage(page, "t:" + last.getDate() + ':' + last.getId());
+				page.add(article);
+				last = article;
+			}
+
+			if (++head.position < head.articles.size() && head.current().getDate() >= since)
+				heads.add(head);
+		}
+		return new TimelinePage(page, null);
+	}
+
+	/**
+	 * @return Index of the first article ordered after the passed date & ID.
+	 */
+	private static int search(List<Article> articles, long date, int id) {
+		int low = 0;
+		int high = articles.size();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			Article article = articles.get(middle);
+			if (compare(article.getDate(), article.getId(), date, id) <= 0)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	private static int compare(long lhsDate, int lhsId, long rhsDate, int rhsId) {
+		if (lhsDate != rhsDate)
+			return lhsDate > rhsDate ? -1 : 1;
+		return lhsId > rhsId ? -1 : lhsId < rhsId ? 1 : 0;
+	}
+
+	/**
+	 * Position of the merge within one feed's sorted list.
+	 */
+	private static class Head implements Comparable<Head> {
+		final List<Article> articles;
+		int position;
+
+		Head(List<Article> articles, int position) {
+			this.articles = articles;
+			this.position = position;
+		}
+
+		Article current() {
+			return articles.get(position);
+		}
+
+		@Override
+		public int compareTo(Head another) {
+			return ORDER.compare(current(), another.current());
+		}
+	}
+}
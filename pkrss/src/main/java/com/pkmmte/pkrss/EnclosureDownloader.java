@@ -0,0 +1,639 @@
+package com.pkmmte.pkrss;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import com.pkmmte.pkrss.downloader.BufferPool;
+import com.pkmmte.pkrss.downloader.Downloader;
+import com.pkmmte.pkrss.downloader.Response;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Downloads {@link Enclosure} media such as podcasts and videos to local files.
+ * <p>
+ * Large files are split into chunks fetched in parallel through HTTP Range requests.
+ * Progress is persisted next to the destination file so an interrupted download resumes
+ * where it left off instead of starting over. The completed file is checked against the
+ * length reported by the server, or the enclosure's declared length if the server
+ * doesn't report one. Servers without Range support are downloaded in one go.
+ * <p>
+ * Only a limited number of transfers run at once, on background priority threads,
+ * so media downloads don't starve feed refreshes. Media bypasses the HTTP cache.
+ */
+public class EnclosureDownloader {
+	public static final int DEFAULT_MAX_TRANSFERS = 2;
+	public static final int DEFAULT_CONNECTIONS_PER_TRANSFER = 3;
+
+	// Files are split into chunks of this size, the unit of parallelism & resumption
+	private static final long CHUNK_SIZE = 2 * 1024 * 1024;
+
+	// Progress is persisted & reported at most this often
+	private static final long SAVE_INTERVAL = 512 * 1024;
+	private static final long PROGRESS_INTERVAL = 250;
+
+	private static final String PART_SUFFIX = ".part";
+	private static final String STATE_SUFFIX = ".state";
+	private static final int STATE_MAGIC = 0x504b4544;
+	private static final int STATE_VERSION = 1;
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final Pattern CONTENT_RANGE = Pattern.compile("bytes\\s+(\\d+)-(\\d+)/(\\d+|\\*)");
+
+	private final PkRSS singleton;
+	private final Downloader downloader;
+	private final int connectionsPerTransfer;
+	private final ExecutorService transfers;
+	private final ExecutorService connections;
+	private final Handler handler = new Handler(Looper.getMainLooper());
+	private final BufferPool bufferPool = BufferPool.getDefault();
+	private final Map<String, Job> active = new HashMap<String, Job>();
+
+	/**
+	 * Callbacks for a single enclosure download, invoked on the main thread.
+	 */
+	public interface Listener {
+		/**
+		 * @param total Total length in bytes or -1 if not known yet.
+		 */
+		void onProgress(Enclosure enclosure, long downloaded, long total);
+		void onCompleted(Enclosure enclosure, File file);
+		void onFailed(Enclosure enclosure, IOException e);
+	}
+
+	/**
+	 * @param singleton Instance to log through.
+	 * @param downloader Downloader executing the media requests.
+	 * @param maxTransfers Maximum number of enclosures downloaded at once.
+	 * @param connectionsPerTransfer Maximum number of parallel connections per enclosure.
+	 */
+	EnclosureDownloader(PkRSS singleton, Downloader downloader, int maxTransfers, int connectionsPerTransfer) {
+		this.singleton = singleton;
+		this.downloader = downloader;
+		this.connectionsPerTransfer = Math.max(1, connectionsPerTransfer);
+		this.transfers = Executors.newFixedThreadPool(Math.max(1, maxTransfers), new BackgroundThreadFactory("PkRSS-Enclosure"));
+		this.connections = Executors.newFixedThreadPool(Math.max(1, maxTransfers) * this.connectionsPerTransfer, new BackgroundThreadFactory("PkRSS-Enclosure-Chunk"));
+	}
+
+	/**
+	 * Downloads the passed enclosure into the destination file, resuming any previously
+	 * interrupted download of it. Downloading to a file which is already being downloaded
+	 * returns the running download, and an existing file without partial data is
+	 * considered complete.
+	 * @param enclosure Enclosure to download.
+	 * @param file Destination file. Partial data is kept next to it until complete.
+	 * @param listener Listener to notify on the main thread. May be null.
+	 * @return Future completing with the destination file. Cancelling it pauses the
+	 * download, which resumes when requested again.
+	 */
+	public Future<File> download(final Enclosure enclosure, final File file, final Listener listener) {
+		final String key = file.getAbsolutePath();
+		synchronized (active) {
+			Job running = active.get(key);
+			if (running != null && !running.future.isDone())
+				return running.future;
+
+			// A cancelled transfer may still be winding down, its successor waits for it to let go of the files
+			final Job job = new Job(running != null ? running.lock : new ReentrantLock());
+			job.future = transfers.submit(new Callable<File>() {
+				@Override
+				public File call() throws IOException {
+					try {
+						try {
+							job.lock.lockInterruptibly();
+						} catch (InterruptedException e) {
+							throw new InterruptedIOException("Download of " + enclosure.getUrl() + " paused");
+						}
+
+						try {
+							new Transfer(enclosure, file, listener).run();
+						} finally {
+							job.lock.unlock();
+						}
+						notifyCompleted(listener, enclosure, file);
+						return file;
+					} catch (IOException e) {
+						if (!(e instanceof InterruptedIOException)) {
+							singleton.log("Failed to download " + enclosure.getUrl() + ": " + e.getMessage(), Log.WARN);
+							notifyFailed(listener, enclosure, e);
+						}
+						throw e;
+					} finally {
+						// A new download may have replaced this one already
+						synchronized (active) {
+							if (active.get(key) == job)
+								active.remove(key);
+						}
+					}
+				}
+			});
+			active.put(key, job);
+			return job.future;
+		}
+	}
+
+	/**
+	 * Deletes any partial data kept for the specified destination file.
+	 * @param file Destination file passed to {@link #download(Enclosure, File, Listener)}.
+	 * @return {@code true} if nothing is left behind, {@code false} if otherwise.
+	 */
+	public boolean discardPartial(File file) {
+		File part = new File(file.getPath() + PART_SUFFIX);
+		File state = new File(part.getPath() + STATE_SUFFIX);
+		return (!part.exists() || part.delete()) & (!state.exists() || state.delete());
+	}
+
+	/**
+	 * State of a single enclosure download.
+	 */
+	private class Transfer {
+		private final Enclosure enclosure;
+		private final File file;
+		private final File part;
+		private final File stateFile;
+		private final Listener listener;
+		private final AtomicLong downloaded = new AtomicLong();
+		private volatile long lastProgress;
+		private volatile boolean cancelled;
+		private volatile boolean changed;
+
+		// Persisted progress, guarded by this
+		private String validator;
+		private long total = -1;
+		private long[] done;
+
+		Transfer(Enclosure enclosure, File file, Listener listener) {
+			this.enclosure = enclosure;
+			this.file = file;
+			this.part = new File(file.getPath() + PART_SUFFIX);
+			this.stateFile = new File(part.getPath() + STATE_SUFFIX);
+			this.listener = listener;
+		}
+
+		void run() throws IOException {
+			if (file.exists() && !part.exists()) {
+				singleton.log(file + " was downloaded already");
+				return;
+			}
+
+			File parent = file.getAbsoluteFile().getParentFile();
+			if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+				throw new IOException("Could not create directory " + parent);
+
+			RandomAccessFile output = new RandomAccessFile(part, "rw");
+			try {
+				FileChannel channel = output.getChannel();
+				if (loadState()) {
+					singleton.log("Resuming " + enclosure.getUrl() + " at " + downloaded.get() + '/' + total + " bytes");
+				} else if (!probe(output)) {
+					// The probe downloaded the whole file already
+					verify(output);
+					finish(output);
+					return;
+				}
+
+				try {
+					downloadChunks(channel);
+				} finally {
+					// Progress is worthless if the file changed on the server
+					if (changed)
+						discardPartial(file);
+					else
+						saveState(channel);
+				}
+				verify(output);
+			} finally {
+				output.close();
+			}
+			finish(null);
+		}
+
+		/**
+		 * Fetches the first chunk to learn the total length and whether ranges are supported.
+		 * @return {@code true} if the rest can be fetched in chunks, {@code false} if the
+		 * server sent the whole file instead, which has then been written already.
+		 */
+		private boolean probe(RandomAccessFile output) throws IOException {
+			Response response = downloader.execute(rangeRequest(0, CHUNK_SIZE - 1, null));
+			try {
+				long[] range = parseContentRange(response);
+				validator = getValidator(response);
+
+				if (response.getCode() != 206 || range == null || range[0] != 0) {
+					// No Range support, download everything over this response
+					singleton.log("No Range support for " + enclosure.getUrl() + ", downloading in one go");
+					total = parseLength(response.getHeader("Content-Length"));
+					if (total >= 0)
+						checkDeclaredLength();
+					output.setLength(0);
+					done = null;
+					writeSequential(output.getChannel(), response.getStream());
+					return false;
+				}
+
+				total = range[2] >= 0 ? range[2] : declaredLength();
+				if (total < 0)
+					throw new IOException("Unknown length for " + enclosure.getUrl());
+				checkDeclaredLength();
+
+				int chunks = (int) Math.max(1, (total + CHUNK_SIZE - 1) / CHUNK_SIZE);
+				synchronized (this) {
+					done = new long[chunks];
+				}
+				output.setLength(total);
+				writeChunk(output.getChannel(), 0, response.getStream());
+				return true;
+			} finally {
+				response.close();
+			}
+		}
+
+		/**
+		 * Fetches all incomplete chunks over up to {@link #connectionsPerTransfer} connections.
+		 */
+		private void downloadChunks(final FileChannel channel) throws IOException {
+			final AtomicInteger next = new AtomicInteger();
+			List<Future<?>> workers = new ArrayList<Future<?>>(connectionsPerTransfer);
+			int count = Math.min(connectionsPerTransfer, remainingChunks());
+			for (int i = 0; i < count; i++) {
+				workers.add(connections.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws IOException {
+						int index;
+						while (!cancelled && (index = next.getAndIncrement()) < done.length)
+							fetchChunk(channel, index);
+						return null;
+					}
+				}));
+			}
+
+			IOException failure = null;
+			try {
+				for (Future<?> worker : workers) {
+					try {
+						worker.get();
+					} catch (ExecutionException e) {
+						// Stop the other workers as the transfer failed anyway
+						cancelled = true;
+						if (failure == null)
+							failure = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+					}
+				}
+			} catch (InterruptedException e) {
+				// Workers stop at their next read, wait for them so nothing writes to the file once paused
+				cancelled = true;
+				awaitWorkers(workers);
+				throw new InterruptedIOException("Download of " + enclosure.getUrl() + " paused");
+			}
+
+			if (failure != null)
+				throw failure;
+		}
+
+		/**
+		 * Waits for every worker to exit, keeping the interrupt for the caller.
+		 */
+		private void awaitWorkers(List<Future<?>> workers) {
+			boolean interrupted = false;
+			for (Future<?> worker : workers) {
+				while (true) {
+					try {
+						worker.get();
+						break;
+					} catch (ExecutionException e) {
+						break;
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+
+		private void fetchChunk(FileChannel channel, int index) throws IOException {
+			long start = index * CHUNK_SIZE + chunkDone(index);
+			long end = Math.min((index + 1) * CHUNK_SIZE, total) - 1;
+			if (start > end)
+				return;
+
+			Response response = downloader.execute(rangeRequest(start, end, validator));
+			try {
+				long[] range = parseContentRange(response);
+				if (response.getCode() != 206 || range == null || range[0] != start) {
+					changed = true;
+					throw new IOException("Server ignored range of " + enclosure.getUrl() + ", it may have changed");
+				}
+
+				writeChunk(channel, index, response.getStream());
+			} finally {
+				response.close();
+			}
+		}
+
+		/**
+		 * Writes the passed stream at the current end of the specified chunk.
+		 */
+		private void writeChunk(FileChannel channel, int index, InputStream inputStream) throws IOException {
+			long chunkEnd = Math.min((index + 1) * CHUNK_SIZE, total);
+			long position = index * CHUNK_SIZE + chunkDone(index);
+			long unsaved = 0;
+			byte[] buffer = bufferPool.acquireBytes(BUFFER_SIZE);
+			try {
+				int read;
+				while (position < chunkEnd && (read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, chunkEnd - position))) != -1) {
+					if (cancelled || Thread.currentThread().isInterrupted())
+						throw new InterruptedIOException("Download of " + enclosure.getUrl() + " paused");
+
+					write(channel, buffer, read, position);
+					position += read;
+					unsaved += read;
+					synchronized (this) {
+						done[index] += read;
+					}
+					progress(read);
+
+					if (unsaved >= SAVE_INTERVAL) {
+						saveState(channel);
+						unsaved = 0;
+					}
+				}
+			} finally {
+				bufferPool.release(buffer);
+			}
+		}
+
+		private void writeSequential(FileChannel channel, InputStream inputStream) throws IOException {
+			long position = 0;
+			byte[] buffer = bufferPool.acquireBytes(BUFFER_SIZE);
+			try {
+				int read;
+				while ((read = inputStream.read(buffer)) != -1) {
+					if (Thread.currentThread().isInterrupted())
+						throw new InterruptedIOException("Download of " + enclosure.getUrl() + " cancelled");
+
+					write(channel, buffer, read, position);
+					position += read;
+					progress(read);
+				}
+			} finally {
+				bufferPool.release(buffer);
+			}
+		}
+
+		private void write(FileChannel channel, byte[] buffer, int length, long position) throws IOException {
+			ByteBuffer source = ByteBuffer.wrap(buffer, 0, length);
+			while (source.hasRemaining())
+				position += channel.write(source, position);
+		}
+
+		private void progress(int read) {
+			long downloaded = this.downloaded.addAndGet(read);
+			long now = System.currentTimeMillis();
+			if (now - lastProgress >= PROGRESS_INTERVAL) {
+				lastProgress = now;
+				notifyProgress(listener, enclosure, downloaded, total);
+			}
+		}
+
+		/**
+		 * Checks the completed file against the expected length.
+		 */
+		private void verify(RandomAccessFile output) throws IOException {
+			long expected = total >= 0 ? total : declaredLength();
+			long actual = output.length();
+			if (expected >= 0 && actual != expected || done != null && remainingChunks() > 0) {
+				discardPartial(file);
+				throw new IOException("Expected " + expected + " bytes for " + enclosure.getUrl() + " but got " + actual);
+			}
+		}
+
+		private void finish(RandomAccessFile output) throws IOException {
+			if (output != null)
+				output.close();
+			if (file.exists() && !file.delete() || !part.renameTo(file))
+				throw new IOException("Could not move " + part + " to " + file);
+
+			stateFile.delete();
+			notifyProgress(listener, enclosure, downloaded.get(), total);
+			singleton.log("Downloaded " + enclosure.getUrl() + " to " + file);
+		}
+
+		private void checkDeclaredLength() {
+			long declared = declaredLength();
+			if (declared > 0 && declared != total)
+				singleton.log("Enclosure " + enclosure.getUrl() + " declares " + declared + " bytes but the server reports " + total, Log.WARN);
+		}
+
+		private long declaredLength() {
+			try {
+				long length = enclosure.getLength();
+				return length > 0 ? length : -1;
+			} catch (Exception e) {
+				return -1;
+			}
+		}
+
+		private synchronized long chunkDone(int index) {
+			return done[index];
+		}
+
+		private synchronized int remainingChunks() {
+			int remaining = 0;
+			for (int i = 0; i < done.length; i++) {
+				if (done[i] < Math.min((i + 1) * CHUNK_SIZE, total) - i * CHUNK_SIZE)
+					remaining++;
+			}
+			return remaining;
+		}
+
+		/**
+		 * Flushes written data to disk then persists which parts of it are complete.
+		 */
+		private synchronized void saveState(FileChannel channel) throws IOException {
+			if (done == null)
+				return;
+
+			channel.force(false);
+			File temp = new File(stateFile.getPath() + ".tmp");
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			try {
+				out.writeInt(STATE_MAGIC);
+				out.writeInt(STATE_VERSION);
+				out.writeUTF(enclosure.getUrl());
+				out.writeUTF(validator == null ? "" : validator);
+				out.writeLong(total);
+				out.writeInt(done.length);
+				for (long chunk : done)
+					out.writeLong(chunk);
+			} finally {
+				out.close();
+			}
+			if (!temp.renameTo(stateFile))
+				throw new IOException("Could not save progress of " + enclosure.getUrl());
+		}
+
+		/**
+		 * @return {@code true} if progress of a previous download of the same URL was restored.
+		 */
+		private synchronized boolean loadState() {
+			if (!stateFile.isFile() || !part.isFile())
+				return false;
+
+			try {
+				DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(stateFile)));
+				try {
+					if (in.readInt() != STATE_MAGIC || in.readInt() != STATE_VERSION || !enclosure.getUrl().equals(in.readUTF()))
+						return false;
+
+					String validator = in.readUTF();
+					long total = in.readLong();
+					long[] done = new long[in.readInt()];
+					long downloaded = 0;
+					for (int i = 0; i < done.length; i++)
+						downloaded += done[i] = in.readLong();
+					if (part.length() != total)
+						return false;
+
+					this.validator = validator.isEmpty() ? null : validator;
+					this.total = total;
+					this.done = done;
+					this.downloaded.set(downloaded);
+					return true;
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				singleton.log("Discarding unreadable progress of " + enclosure.getUrl(), Log.WARN);
+				return false;
+			}
+		}
+
+		private Request rangeRequest(long start, long end, String validator) {
+			// Compression would make byte ranges meaningless
+			return new Request.Builder(enclosure.getUrl())
+				.noStore(true)
+				.background(true)
+				.header("Accept-Encoding", "identity")
+				.header("Range", "bytes=" + start + '-' + end)
+				.header("If-Range", validator)
+				.build();
+		}
+	}
+
+	/**
+	 * @return Start, end & total length of a Content-Range header, total being -1 if unknown,
+	 * or null if missing or malformed.
+	 */
+	private static long[] parseContentRange(Response response) {
+		String value = response.getHeader("Content-Range");
+		if (value == null)
+			return null;
+
+		Matcher matcher = CONTENT_RANGE.matcher(value.trim());
+		if (!matcher.matches())
+			return null;
+
+		return new long[] {
+			Long.parseLong(matcher.group(1)),
+			Long.parseLong(matcher.group(2)),
+			"*".equals(matcher.group(3)) ? -1 : Long.parseLong(matcher.group(3))
+		};
+	}
+
+	/**
+	 * @return A strong ETag or the Last-Modified date to resume against, or null if none.
+	 */
+	private static String getValidator(Response response) {
+		String etag = response.getHeader("ETag");
+		if (etag != null && !etag.startsWith("W/"))
+			return etag;
+		return response.getHeader("Last-Modified");
+	}
+
+	private static long parseLength(String value) {
+		if (value == null)
+			return -1;
+
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private void notifyProgress(final Listener listener, final Enclosure enclosure, final long downloaded, final long total) {
+		if (listener == null)
+			return;
+
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				listener.onProgress(enclosure, downloaded, total);
+			}
+		});
+	}
+
+	private void notifyCompleted(final Listener listener, final Enclosure enclosure, final File file) {
+		if (listener == null)
+			return;
+
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				listener.onCompleted(enclosure, file);
+			}
+		});
+	}
+
+	private void notifyFailed(final Listener listener, final Enclosure enclosure, final IOException e) {
+		if (listener == null)
+			return;
+
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				listener.onFailed(enclosure, e);
+			}
+		});
+	}
+
+	/**
+	 * A download of one destination file. Downloads of the same file share a lock held
+	 * while transferring, so a cancelled transfer has exited before the next one starts.
+	 */
+	private static class Job {
+		final Lock lock;
+		Future<File> future;
+
+		Job(Lock lock) {
+			this.lock = lock;
+		}
+	}
+}
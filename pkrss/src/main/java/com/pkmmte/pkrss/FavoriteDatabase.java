@@ -1,23 +1,29 @@
 package com.pkmmte.pkrss;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.text.TextUtils;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 
 /**
  * A rather simple SQLite database used for storing Article objects upon marked them as favorites. <p> <b>Warning:</b> <i>Extra article properties
  * will not be saved!</i>
+ * <p>
+ * A single connection is opened on first use and kept open in write-ahead logging mode, along with
+ * precompiled statements for the frequent upsert, delete & lookup operations. Access is serialized
+ * on this instance as compiled statements may not be shared between threads. Bulk operations run
+ * in a single transaction so they are synced to disk once.
  */
 class FavoriteDatabase extends SQLiteOpenHelper {
 	// Basic Database Info
-	private static final int DATABASE_VERSION = 1;
+	private static final int DATABASE_VERSION = 2;
 	private static final String DATABASE_NAME = "db.pkrss.favorites";
 	private static final String TABLE_ARTICLES = "articles";
 
@@ -32,11 +38,56 @@ class FavoriteDatabase extends SQLiteOpenHelper {
 	private static final String KEY_AUTHOR = "AUTHOR";
 	private static final String KEY_DATE = "DATE";
 	private static final String KEY_ID = "ID";
+	private static final String KEY_ROWID = "rowid";
+
+	// Columns read into Article objects, CONTENT is left out by list projections
+	private static final String[] COLUMNS = {KEY_TAGS, KEY_SOURCE, KEY_IMAGE, KEY_TITLE, KEY_DESCRIPTION, KEY_CONTENT, KEY_COMMENTS, KEY_AUTHOR,
+		KEY_DATE, KEY_ID, KEY_ROWID};
+	private static final String[] LIST_COLUMNS = {KEY_TAGS, KEY_SOURCE, KEY_IMAGE, KEY_TITLE, KEY_DESCRIPTION, "NULL", KEY_COMMENTS, KEY_AUTHOR,
+		KEY_DATE, KEY_ID, KEY_ROWID};
+
+	// Long-lived connection & its compiled statements, guarded by this
+	private SQLiteDatabase database;
+	private SQLiteStatement insertStatement;
+	private SQLiteStatement updateStatement;
+	private SQLiteStatement deleteStatement;
+	private SQLiteStatement containsStatement;
 
 	public FavoriteDatabase(Context context) {
 		super(context, DATABASE_NAME, null, DATABASE_VERSION);
 	}
 
+	/**
+	 * @return The shared connection, opening it & compiling statements first if needed.
+	 */
+	private SQLiteDatabase getDatabase() {
+		if (database == null || !database.isOpen()) {
+			database = getWritableDatabase();
+			database.enableWriteAheadLogging();
+			insertStatement = database.compileStatement("INSERT INTO " + TABLE_ARTICLES + " (" + KEY_TAGS + ", " + KEY_SOURCE + ", "
+				+ KEY_IMAGE + ", " + KEY_TITLE + ", " + KEY_DESCRIPTION + ", " + KEY_CONTENT + ", " + KEY_COMMENTS + ", " + KEY_AUTHOR + ", "
+				+ KEY_DATE + ", " + KEY_ID + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+			updateStatement = database.compileStatement("UPDATE " + TABLE_ARTICLES + " SET " + KEY_TAGS + " = ?, " + KEY_SOURCE + " = ?, "
+				+ KEY_IMAGE + " = ?, " + KEY_TITLE + " = ?, " + KEY_DESCRIPTION + " = ?, " + KEY_CONTENT + " = ?, " + KEY_COMMENTS + " = ?, "
+				+ KEY_AUTHOR + " = ?, " + KEY_DATE + " = ? WHERE " + KEY_ID + " = ?");
+			deleteStatement = database.compileStatement("DELETE FROM " + TABLE_ARTICLES + " WHERE " + KEY_ID + " = ?");
+			containsStatement = database.compileStatement("SELECT COUNT(*) FROM " + TABLE_ARTICLES + " WHERE " + KEY_ID + " = ?");
+		}
+		return database;
+	}
+
+	@Override
+	public synchronized void close() {
+		if (database != null) {
+			insertStatement.close();
+			updateStatement.close();
+			deleteStatement.close();
+			containsStatement.close();
+			database = null;
+		}
+		super.close();
+	}
+
 	@Override
 	public void onCreate(SQLiteDatabase db) {
 		String CREATE_ARTICLES_TABLE = "CREATE TABLE "
@@ -59,138 +110,247 @@ class FavoriteDatabase extends SQLiteOpenHelper {
 			+ KEY_AUTHOR
 			+ " TEXT , "
 			+ KEY_DATE
-			+ " TEXT , "
+			+ " INTEGER , "
 			+ KEY_ID
 			+ " INTEGER  NOT NULL  UNIQUE "
 			+ ")";
 		db.execSQL(CREATE_ARTICLES_TABLE);
+
+		// Backs date ordered pages, the rowid tie breaker is part of every index entry
+		db.execSQL("CREATE INDEX " + TABLE_ARTICLES + "_" + KEY_DATE + " ON " + TABLE_ARTICLES + " (" + KEY_DATE + ")");
 	}
 
 	@Override
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-		db.execSQL("DROP TABLE IF EXISTS " + TABLE_ARTICLES);
-		onCreate(db);
+		if (oldVersion < 2) {
+			// Dates used to be stored as text which doesn't sort, copy favorites over in insertion order
+			String columns = KEY_TAGS + ", " + KEY_SOURCE + ", " + KEY_IMAGE + ", " + KEY_TITLE + ", " + KEY_DESCRIPTION + ", " + KEY_CONTENT + ", "
+				+ KEY_COMMENTS + ", " + KEY_AUTHOR;
+			db.execSQL("ALTER TABLE " + TABLE_ARTICLES + " RENAME TO " + TABLE_ARTICLES + "_v1");
+			onCreate(db);
+			db.execSQL("INSERT INTO " + TABLE_ARTICLES + " (" + columns + ", " + KEY_DATE + ", " + KEY_ID + ") SELECT " + columns + ", CAST("
+				+ KEY_DATE + " AS INTEGER), " + KEY_ID + " FROM " + TABLE_ARTICLES + "_v1 ORDER BY " + KEY_ROWID);
+			db.execSQL("DROP TABLE " + TABLE_ARTICLES + "_v1");
+		}
 	}
 
 	/**
-	 * Inserts an Article object to this database.
+	 * Inserts an Article object to this database, or updates the stored one with the same ID.
 	 *
 	 * @param article Object to save into database.
 	 */
-	public void add(Article article) {
-		// Get Write Access
-		SQLiteDatabase db = this.getWritableDatabase();
-
-		// Build Content Values
-		ContentValues values = new ContentValues();
-		values.put(KEY_TAGS, TextUtils.join("_PCX_", article.getTags()));
-		values.put(KEY_SOURCE, article.getSource().toString());
-		values.put(KEY_IMAGE, article.getImage().toString());
-		values.put(KEY_TITLE, article.getTitle());
-		values.put(KEY_DESCRIPTION, article.getDescription());
-		values.put(KEY_CONTENT, article.getContent());
-		values.put(KEY_COMMENTS, article.getComments());
-		values.put(KEY_AUTHOR, article.getAuthor());
-		values.put(KEY_DATE, article.getDate());
-		values.put(KEY_ID, article.getId());
-
-		// Insert & Close
-		db.insert(TABLE_ARTICLES, null, values);
-		db.close();
+	public synchronized void add(Article article) {
+		getDatabase();
+		upsert(article);
+	}
+
+	/**
+	 * Inserts or updates several Article objects in a single transaction.
+	 *
+	 * @param articles Objects to save into database.
+	 */
+	public synchronized void addAll(Collection<Article> articles) {
+		SQLiteDatabase db = getDatabase();
+		db.beginTransactionNonExclusive();
+		try {
+			for (Article article : articles)
+				upsert(article);
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	/**
+	 * Updates the stored article with the same ID, keeping its position in insertion order,
+	 * or inserts it if there is none. Must be called with the database open.
+	 */
+	private void upsert(Article article) {
+		bindArticle(updateStatement, article);
+		if (updateStatement.executeUpdateDelete() == 0) {
+			bindArticle(insertStatement, article);
+			insertStatement.executeInsert();
+		}
 	}
 
 	/**
 	 * @param id ID to search for.
 	 * @return An Article object with the specified ID. May return null if none was found.
 	 */
-	public Article get(int id) {
-		// Get Read Access
-		SQLiteDatabase db = this.getReadableDatabase();
-
+	public synchronized Article get(int id) {
 		// Execute query with specified id
-		Cursor cursor = db.query(TABLE_ARTICLES,
-		                         new String[] {KEY_TAGS, KEY_SOURCE, KEY_IMAGE, KEY_TITLE, KEY_DESCRIPTION, KEY_CONTENT, KEY_COMMENTS, KEY_AUTHOR,
-			                         KEY_DATE, KEY_ID}, KEY_ID + "=?", new String[] {String.valueOf(id)}, null, null, null, null);
-		Article article = null;
-
+		Cursor cursor = getDatabase().query(TABLE_ARTICLES, COLUMNS, KEY_ID + "=?", new String[] {String.valueOf(id)}, null, null, null, null);
 		try {
 			// Attempt to retrieve article
-			if (cursor != null) {
-				cursor.moveToFirst();
-				article = new Article(null, Arrays.asList(cursor.getString(0).split("_PCX_")), Uri.parse(cursor.getString(1)),
-				                      Uri.parse(cursor.getString(2)), cursor.getString(3), cursor.getString(4), cursor.getString(5),
-				                      cursor.getString(6), cursor.getString(7), cursor.getLong(8), cursor.getInt(9));
-			}
+			return cursor.moveToFirst() ? readArticle(cursor) : null;
 		} finally {
 			// Close Cursor
-			if (cursor != null) cursor.close();
+			cursor.close();
 		}
-
-		// Close & Return
-		db.close();
-		return article;
 	}
 
 	/**
 	 * @return A backwards Article ArrayList ordered from last added to end.
+	 * Prefer {@link #getPage(int, int, boolean, String)} as this reads every favorite at once.
 	 */
-	public List<Article> getAll() {
-		// Init List & Build Query
-		List<Article> articleList = new ArrayList<Article>();
-		String selectQuery = "SELECT  * FROM " + TABLE_ARTICLES;
-
-		// Get Write Access & Execute Query
-		SQLiteDatabase db = this.getWritableDatabase();
-		Cursor cursor = db.rawQuery(selectQuery, null);
-
-		// Read the query backwards
-		if (cursor.moveToLast()) {
-			do {
-				articleList.add(new Article(null, Arrays.asList(cursor.getString(0).split("_PCX_")), Uri.parse(cursor.getString(1)),
-				                            Uri.parse(cursor.getString(2)), cursor.getString(3), cursor.getString(4), cursor.getString(5),
-				                            cursor.getString(6), cursor.getString(7), cursor.getLong(8), cursor.getInt(9)));
-			} while (cursor.moveToPrevious());
+	public synchronized List<Article> getAll() {
+		Cursor cursor = getDatabase().query(TABLE_ARTICLES, COLUMNS, null, null, null, null, KEY_ROWID + " DESC");
+		try {
+			List<Article> articleList = new ArrayList<Article>(cursor.getCount());
+			while (cursor.moveToNext())
+				articleList.add(readArticle(cursor));
+			return articleList;
+		} finally {
+			cursor.close();
 		}
-		db.close();
+	}
 
-		return articleList;
+	/**
+	 * Reads one page of favorites using keyset pagination, so deep pages cost the same as the first.
+	 * @param order Either {@link FavoritePage#ORDER_DATE} or {@link FavoritePage#ORDER_ADDED}.
+	 * @param limit Maximum number of articles in the page.
+	 * @param content Whether to read article content, which list views usually don't need.
+	 * @param cursor Cursor returned along with the previous page or null for the first page.
+	 * @return The requested page.
+	 */
+	public synchronized FavoritePage getPage(int order, int limit, boolean content, String cursor) {
+		if (order != FavoritePage.ORDER_DATE && order != FavoritePage.ORDER_ADDED)
+			throw new IllegalArgumentException("Unknown order " + order);
+		if (limit <= 0)
+			throw new IllegalArgumentException("Limit must be positive");
+
+		String selection = null;
+		String[] selectionArgs = null;
+		if (cursor != null) {
+			String[] keys = cursor.split(":");
+			try {
+				if (order == FavoritePage.ORDER_DATE && keys.length == 3 && keys[0].equals("d")) {
+					Long.parseLong(keys[1]);
+					Long.parseLong(keys[2]);
+					// The leading range lets the date index drive the scan, the rest skips ties already returned
+					selection = KEY_DATE + " <= ? AND (" + KEY_DATE + " < ? OR " + KEY_ROWID + " < ?)";
+					selectionArgs = new String[] {keys[1], keys[1], keys[2]};
+				} else if (order == FavoritePage.ORDER_ADDED && keys.length == 2 && keys[0].equals("a")) {
+					Long.parseLong(keys[1]);
+					selection = KEY_ROWID + " < ?";
+					selectionArgs = new String[] {keys[1]};
+				}
+			} catch (NumberFormatException e) {
+				selection = null;
+			}
+			if (selection == null)
+				throw new IllegalArgumentException("Invalid cursor " + cursor);
+		}
+
+		String orderBy = order == FavoritePage.ORDER_DATE ? KEY_DATE + " DESC, " + KEY_ROWID + " DESC" : KEY_ROWID + " DESC";
+		Cursor c = getDatabase().query(TABLE_ARTICLES, content ? COLUMNS : LIST_COLUMNS, selection, selectionArgs, null, null, orderBy,
+		                               String.valueOf(limit + 1));
+		try {
+			List<Article> articles = new ArrayList<Article>(Math.min(c.getCount(), limit));
+			String nextCursor = null;
+			while (c.moveToNext()) {
+				if (articles.size() == limit) {
+					// One more row than requested means there's a following page
+					c.moveToPrevious();
+					nextCursor = order == FavoritePage.ORDER_DATE ? "d:" + c.getLong(8) + ':' + c.getLong(10) : "a:" + c.getLong(10);
+					break;
+				}
+				articles.add(readArticle(c));
+			}
+			return new FavoritePage(articles, nextCursor);
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * @return The IDs of every stored Article, without reading the articles themselves.
+	 */
+	public synchronized int[] getIds() {
+		Cursor cursor = getDatabase().query(TABLE_ARTICLES, new String[] {KEY_ID}, null, null, null, null, null);
+		try {
+			int[] ids = new int[cursor.getCount()];
+			for (int i = 0; cursor.moveToNext(); i++)
+				ids[i] = cursor.getInt(0);
+			return ids;
+		} finally {
+			cursor.close();
+		}
 	}
 
 	/**
 	 * @param id ID to search for.
 	 * @return {@code true} if found or {@code false} if otherwise.
 	 */
-	public boolean contains(int id) {
-		// Get Read Access & Execute Query
-		SQLiteDatabase db = this.getReadableDatabase();
-		Cursor cursor = db.query(TABLE_ARTICLES,
-		                         new String[] {KEY_TAGS, KEY_SOURCE, KEY_IMAGE, KEY_TITLE, KEY_DESCRIPTION, KEY_CONTENT, KEY_COMMENTS, KEY_AUTHOR,
-			                         KEY_DATE, KEY_ID}, KEY_ID + "=?", new String[] {String.valueOf(id)}, null, null, null, null);
-
-		// Check if any row exists for this query
-		boolean exists = cursor.moveToFirst();
-
-		// Close & Return
-		db.close();
-		return exists;
+	public synchronized boolean contains(int id) {
+		// Indexed lookup through the unique ID column, no cursor involved
+		getDatabase();
+		containsStatement.bindLong(1, id);
+		return containsStatement.simpleQueryForLong() > 0;
 	}
 
 	/**
 	 * Removes a specified Article from this database based on its ID value.
 	 * @param article Article to remove. May contain dummy data as long as the id is valid.
 	 */
-	public void delete(Article article) {
-		SQLiteDatabase db = this.getWritableDatabase();
-		db.delete(TABLE_ARTICLES, KEY_ID + " = ?", new String[] {String.valueOf(article.getId())});
-		db.close();
+	public synchronized void delete(Article article) {
+		getDatabase();
+		deleteStatement.bindLong(1, article.getId());
+		deleteStatement.executeUpdateDelete();
+	}
+
+	/**
+	 * Removes several Articles in a single transaction.
+	 * @param ids IDs of the articles to remove.
+	 */
+	public synchronized void delete(int[] ids) {
+		SQLiteDatabase db = getDatabase();
+		db.beginTransactionNonExclusive();
+		try {
+			for (int id : ids) {
+				deleteStatement.bindLong(1, id);
+				deleteStatement.executeUpdateDelete();
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
 	}
 
 	/**
 	 * Removes ALL content stored in this database!
 	 */
-	public void deleteAll() {
-		SQLiteDatabase db = this.getWritableDatabase();
-		db.delete(TABLE_ARTICLES, null, null);
-		db.close();
+	public synchronized void deleteAll() {
+		getDatabase().delete(TABLE_ARTICLES, null, null);
+	}
+
+	private static Article readArticle(Cursor cursor) {
+		return new Article(null, Arrays.asList(cursor.getString(0).split("_PCX_")), Uri.parse(cursor.getString(1)), Uri.parse(cursor.getString(2)),
+		                   cursor.getString(3), cursor.getString(4), cursor.getString(5), cursor.getString(6), cursor.getString(7),
+		                   cursor.getLong(8), cursor.getInt(9));
+	}
+
+	/**
+	 * Binds every column of the passed article in the order shared by the insert & update statements.
+	 */
+	private static void bindArticle(SQLiteStatement statement, Article article) {
+		// Bind every column, null values included as bindings persist between executions
+		bindString(statement, 1, TextUtils.join("_PCX_", article.getTags()));
+		bindString(statement, 2, article.getSource().toString());
+		bindString(statement, 3, article.getImage().toString());
+		bindString(statement, 4, article.getTitle());
+		bindString(statement, 5, article.getDescription());
+		bindString(statement, 6, article.getContent());
+		bindString(statement, 7, article.getComments());
+		bindString(statement, 8, article.getAuthor());
+		statement.bindLong(9, article.getDate());
+		statement.bindLong(10, article.getId());
+	}
+
+	private static void bindString(SQLiteStatement statement, int index, String value) {
+		if (value == null)
+			statement.bindNull(index);
+		else
+			statement.bindString(index, value);
 	}
-}
\ No newline at end of file
+}
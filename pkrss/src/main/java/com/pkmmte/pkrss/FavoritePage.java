@@ -0,0 +1,45 @@
+package com.pkmmte.pkrss;
+
+import java.util.List;
+
+/**
+ * One page of favorite articles, as returned by {@link PkRSS#getFavorites(int, int, boolean, String)}.
+ * <p>
+ * Pages are fetched by keyset pagination: pass {@link #getNextCursor()} to fetch the page
+ * following this one. Unlike offsets, cursors stay valid while favorites are added or removed.
+ */
+public class FavoritePage {
+	/** Orders favorites by article date, newest first. */
+	public static final int ORDER_DATE = 0;
+	/** Orders favorites by when they were saved, most recent first. */
+	public static final int ORDER_ADDED = 1;
+
+	private final List<Article> articles;
+	private final String nextCursor;
+
+	FavoritePage(List<Article> articles, String nextCursor) {
+		this.articles = articles;
+		this.nextCursor = nextCursor;
+	}
+
+	/**
+	 * @return Articles of this page in the requested order.
+	 */
+	public List<Article> getArticles() {
+		return articles;
+	}
+
+	/**
+	 * @return Opaque cursor to fetch the following page with, or null if this is the last page.
+	 */
+	public String getNextCursor() {
+		return nextCursor;
+	}
+
+	/**
+	 * @return {@code true} if more favorites follow this page.
+	 */
+	public boolean hasMore() {
+		return nextCursor != null;
+	}
+}
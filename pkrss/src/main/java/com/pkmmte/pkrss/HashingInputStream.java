@@ -0,0 +1,80 @@
+package com.pkmmte.pkrss;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An {@link InputStream} wrapper which hashes every byte read through it.
+ * <p>
+ * Uses the 64-bit FNV-1a hash. It is not cryptographically secure, but it is cheap
+ * enough to run over every downloaded body and good enough to tell whether a feed
+ * has changed since it was last parsed.
+ */
+class HashingInputStream extends FilterInputStream {
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private long hash = FNV_OFFSET_BASIS;
+
+	HashingInputStream(InputStream in) {
+		super(in);
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+		if (b != -1)
+			hash = (hash ^ b) * FNV_PRIME;
+		return b;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int count) throws IOException {
+		int read = super.read(buffer, offset, count);
+		long h = hash;
+		for (int i = offset, end = offset + read; i < end; i++)
+			h = (h ^ (buffer[i] & 0xff)) * FNV_PRIME;
+		hash = h;
+		return read;
+	}
+
+	@Override
+	public long skip(long count) throws IOException {
+		// Skipped bytes would never be hashed, so read through them instead
+		byte[] buffer = new byte[(int) Math.min(count, 4096)];
+		long skipped = 0;
+		while (skipped < count) {
+			int read = read(buffer, 0, (int) Math.min(buffer.length, count - skipped));
+			if (read == -1)
+				break;
+			skipped += read;
+		}
+		return skipped;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	/**
+	 * Hashes the remaining bytes of the passed buffer the same way this stream would.
+	 * @param buffer Buffer to hash. Its position is left untouched.
+	 * @return Hash of the buffer's remaining bytes.
+	 */
+	public static long hash(ByteBuffer buffer) {
+		long h = FNV_OFFSET_BASIS;
+		for (int i = buffer.position(), end = buffer.limit(); i < end; i++)
+			h = (h ^ (buffer.get(i) & 0xff)) * FNV_PRIME;
+		return h;
+	}
+
+	/**
+	 * @return Hash of all bytes read so far.
+	 */
+	public long getHash() {
+		return hash;
+	}
+}
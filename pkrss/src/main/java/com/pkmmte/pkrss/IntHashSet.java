@@ -0,0 +1,156 @@
+package com.pkmmte.pkrss;
+
+import java.util.Arrays;
+
+/**
+ * A set of primitive ints using open addressing with linear probing, avoiding the
+ * boxing & per-entry allocations of a {@code HashSet<Integer>}. Not thread-safe.
+ */
+class IntHashSet {
+	// Marks free slots, the value itself is tracked separately
+	private static final int EMPTY = 0;
+
+	private int[] slots;
+	private int size;
+	private boolean containsEmpty;
+
+	IntHashSet() {
+		this(16);
+	}
+
+	/**
+	 * @param capacity Number of values expected, so the table won't need to grow until then.
+	 */
+	IntHashSet(int capacity) {
+		int length = 16;
+		while (length * 3 / 4 < capacity)
+			length <<= 1;
+		slots = new int[length];
+	}
+
+	/**
+	 * @return {@code true} if the passed value is part of this set.
+	 */
+	boolean contains(int value) {
+		if (value == EMPTY)
+			return containsEmpty;
+
+		int mask = slots.length - 1;
+		for (int i = hash(value) & mask; slots[i] != EMPTY; i = (i + 1) & mask) {
+			if (slots[i] == value)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Adds the passed value to this set.
+	 * @return {@code true} if it wasn't part of it before.
+	 */
+	boolean add(int value) {
+		if (value == EMPTY) {
+			if (containsEmpty)
+				return false;
+			containsEmpty = true;
+			size++;
+			return true;
+		}
+
+		int mask = slots.length - 1;
+		int i = hash(value) & mask;
+		for (; slots[i] != EMPTY; i = (i + 1) & mask) {
+			if (slots[i] == value)
+				return false;
+		}
+		slots[i] = value;
+		if (++size > slots.length * 3 / 4)
+			rehash(slots.length << 1);
+		return true;
+	}
+
+	/**
+	 * Removes the passed value from this set.
+	 * @return {@code true} if it was part of it before.
+	 */
+	boolean remove(int value) {
+		if (value == EMPTY) {
+			if (!containsEmpty)
+				return false;
+			containsEmpty = false;
+			size--;
+			return true;
+		}
+
+		int mask = slots.length - 1;
+		int i = hash(value) & mask;
+		for (; slots[i] != value; i = (i + 1) & mask) {
+			if (slots[i] == EMPTY)
+				return false;
+		}
+
+		// Shift following values of the same run back so lookups never stop early
+		int gap = i;
+		for (int j = (i + 1) & mask; slots[j] != EMPTY; j = (j + 1) & mask) {
+			int home = hash(slots[j]) & mask;
+			if (((j - home) & mask) >= ((j - gap) & mask)) {
+				slots[gap] = slots[j];
+				gap = j;
+			}
+		}
+		slots[gap] = EMPTY;
+		size--;
+		return true;
+	}
+
+	/**
+	 * Removes every value.
+	 */
+	void clear() {
+		Arrays.fill(slots, EMPTY);
+		containsEmpty = false;
+		size = 0;
+	}
+
+	/**
+	 * @return Number of values in this set.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return Every value of this set in no particular order.
+	 */
+	int[] toArray() {
+		int[] values = new int[size];
+		int count = 0;
+		if (containsEmpty)
+			values[count++] = EMPTY;
+		for (int slot : slots) {
+			if (slot != EMPTY)
+				values[count++] = slot;
+		}
+		return values;
+	}
+
+	private void rehash(int length) {
+		int[] old = slots;
+		slots = new int[length];
+		int mask = length - 1;
+		for (int value : old) {
+			if (value == EMPTY)
+				continue;
+
+			int i = hash(value) & mask;
+			while (slots[i] != EMPTY)
+				i = (i + 1) & mask;
+			slots[i] = value;
+		}
+	}
+
+	private static int hash(int value) {
+		// Article IDs are String hashes, spread them anyway as sequential IDs cluster badly
+		int h = value * 0x9e3779b9;
+		return h ^ (h >>> 16);
+	}
+}
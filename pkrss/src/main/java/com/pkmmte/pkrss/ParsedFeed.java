@@ -9,6 +9,7 @@ import java.util.List;
 public class ParsedFeed {
     private Channel channel;
     private List<Article> articles;
+    private boolean unchanged;
 
     public ParsedFeed() {
         this.channel = new Channel();
@@ -36,6 +37,19 @@ public class ParsedFeed {
         this.articles = articles;
     }
 
+    /**
+     * @return {@code true} if this feed was served from the last successful parse because
+     * the downloaded body was identical to it, {@code false} if it was freshly parsed.
+     * Callbacks may use this to skip diffing their UI.
+     */
+    public boolean isUnchanged() {
+        return unchanged;
+    }
+
+    public void setUnchanged(boolean unchanged) {
+        this.unchanged = unchanged;
+    }
+
     public void clear() {
         if (this.articles != null) {
             this.articles.clear();
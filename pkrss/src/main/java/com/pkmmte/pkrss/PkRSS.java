@@ -10,9 +10,17 @@ import android.util.Log;
 import android.util.SparseBooleanArray;
 import android.util.Xml;
 
+import com.pkmmte.pkrss.downloader.AdaptiveTimeouts;
+import com.pkmmte.pkrss.downloader.BufferPool;
+import com.pkmmte.pkrss.downloader.CircuitBreaker;
 import com.pkmmte.pkrss.downloader.DefaultDownloader;
 import com.pkmmte.pkrss.downloader.Downloader;
+import com.pkmmte.pkrss.downloader.FileDownloader;
 import com.pkmmte.pkrss.downloader.OkHttpDownloader;
+import com.pkmmte.pkrss.downloader.PooledByteArrayOutputStream;
+import com.pkmmte.pkrss.downloader.RateLimiter;
+import com.pkmmte.pkrss.downloader.Response;
+import com.pkmmte.pkrss.downloader.RetryPolicy;
 import com.pkmmte.pkrss.parser.AtomParser;
 import com.pkmmte.pkrss.parser.Parser;
 import com.pkmmte.pkrss.parser.Rss2Parser;
@@ -20,13 +28,24 @@ import com.pkmmte.pkrss.parser.Rss2Parser;
 import org.xmlpull.v1.XmlPullParser;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /**
  * A powerful RSS feed manager for Android
@@ -46,6 +65,23 @@ public class PkRSS {
 	public static final String KEY_READ_ARRAY = "READ ARRAY";
 	public static final String KEY_FAVORITES = "FAVORITES";
 
+	// Expected size of a feed body if the response doesn't tell
+	private static final int BODY_SIZE_HINT = 64 * 1024;
+
+	// RFC 3229 status for responses holding only the changes since a previous instance
+	private static final int HTTP_IM_USED = 226;
+	private static final int HTTP_NOT_MODIFIED = 304;
+
+	// Name of the file journaling read states
+	private static final String READ_JOURNAL_NAME = "pkrss-read.journal";
+	private static final String READ_SNAPSHOT_NAME = "pkrss-read.bitmap";
+
+	// Favorites read at once while building the search index
+	private static final int FAVORITE_INDEX_PAGE_SIZE = 256;
+
+	// Time after which prefetched pages are considered outdated
+	private static final long PREFETCHED_PAGE_TTL = 10 * 60 * 1000;
+
 	// Global singleton instance
 	private static PkRSS singleton = null;
 
@@ -68,18 +104,69 @@ public class PkRSS {
 	// Our handy client for getting XML feed data
 	private final Downloader downloader;
 
+	// Loads file:// & asset:// feeds, created when first needed
+	private FileDownloader fileDownloader;
+
+	// Downloads enclosure media, created when first needed
+	private final int maxEnclosureTransfers;
+	private EnclosureDownloader enclosureDownloader;
+
+	// Downloads images of new articles ahead of time, null if disabled
+	private final Prefetcher prefetcher;
+
 	// List of stored articles
 	private final Map<String, List<Article>> articleMap = new HashMap<String, List<Article>>();
 
 	// Keep track of pages already loaded on specific feeds
 	private final Map<String, Integer> pageTracker = new HashMap<String, Integer>();
 
-	// Persistent SparseArray for checking an article's read state
-	private final SparseBooleanArray readList = new SparseBooleanArray();
+	// Persists the two maps above across process deaths, null if disabled
+	private final ArticleStore articleStore;
+	private final ExecutorService storeExecutor;
+
+	// Feeds restored from the store whose next insert replaces them, guarded by articleMap
+	private final Set<String> restoredFeeds = new HashSet<String>();
+
+	// Full-text index over every loaded & favorite article
+	private final SearchIndex searchIndex = new SearchIndex();
+
+	// Tag & author indexes over the articles held in articleMap
+	private final AttributeIndex attributeIndex = new AttributeIndex();
+
+	// Date sorted copies of the lists held in articleMap, for merged timelines
+	private final DateIndex dateIndex = new DateIndex();
+
+	// Buffers reused along the download to parse path
+	private final BufferPool bufferPool = BufferPool.getDefault();
+
+	// Pages fetched ahead of time by their page URL & the low priority thread fetching them
+	private final Map<String, PrefetchedPage> prefetchedPages = new HashMap<String, PrefetchedPage>();
+	private final ExecutorService pageExecutor = Executors.newSingleThreadExecutor(new BackgroundThreadFactory("PkRSS-Pages"));
+
+	// Body hash & result of the last successful parse for each feed page, keyed by its full URL
+	private final Map<String, Long> feedHashes = new HashMap<String, Long>();
+	private final Map<String, ParsedFeed> feedCache = new HashMap<String, ParsedFeed>();
+
+	// ETag of the feed instance held in the cache above, for delta feed requests
+	private final Map<String, String> feedETags = new HashMap<String, String>();
+
+	// Persistent bitmap of the IDs of articles marked as read, guarded by readLock
+	private final Object readLock = new Object();
+	private ReadBitmap readList;
+
+	// Persists changes to the read list above
+	private final ReadJournal readJournal;
+
+	// IDs changed while migrating read state from older versions, null once migrated
+	private ReadBitmap readChanged;
 
 	// Database storing all articles marked as favorite
 	private final FavoriteDatabase favoriteDatabase;
 
+	// IDs of the articles in the database above once loaded, guarded by itself
+	private final IntHashSet favoriteIds = new IntHashSet();
+	private boolean favoritesLoaded;
+
 	/**
 	 * The global default {@link PkRSS} instance.
 	 * <p>
@@ -108,16 +195,25 @@ public class PkRSS {
 		PkRSS.singleton = singleton;
 	}
 
-	PkRSS(Context context, CallbackHandler handler, Downloader downloader, boolean loggingEnabled, boolean safe) {
+	PkRSS(Context context, CallbackHandler handler, Downloader downloader, boolean loggingEnabled, boolean safe, int maxEnclosureTransfers, Prefetcher prefetcher,
+	      ArticleStore articleStore) {
 		this.mContext = context;
 		this.handler = handler;
 		this.downloader = downloader;
 		this.downloader.attachInstance(this);
 		this.loggingEnabled = loggingEnabled;
 		this.safe = safe;
+		this.maxEnclosureTransfers = maxEnclosureTransfers;
+		this.prefetcher = prefetcher;
+		if (prefetcher != null)
+			prefetcher.attachInstance(this);
+		this.articleStore = articleStore;
+		this.storeExecutor = articleStore == null ? null : Executors.newSingleThreadExecutor(new BackgroundThreadFactory("PkRSS-Store"));
 		this.mPrefs = context.getSharedPreferences(TAG, Context.MODE_PRIVATE);
+		this.readJournal = new ReadJournal(new File(context.getFilesDir(), READ_JOURNAL_NAME), new File(context.getFilesDir(), READ_SNAPSHOT_NAME), this);
 		getRead();
 		favoriteDatabase = new FavoriteDatabase(context);
+		getFavoriteIds();
 	}
 
 	/**
@@ -156,9 +252,21 @@ public class PkRSS {
 	 * @throws IOException
 	 */
 	protected void load(final Request request) throws IOException {
+		load(request, false);
+	}
+
+	/**
+	 * Handles the specified {@link Request}.
+	 * @param request Request to execute.
+	 * @param revalidation Whether this is a background revalidation of a feed already delivered.
+	 * If so, callbacks are only notified if the feed changed.
+	 * @throws IOException
+	 */
+	private void load(final Request request, final boolean revalidation) throws IOException {
 		log("load(" + request + ')');
 		final CallbackHandler handler = request.handler != null ? request.handler : this.handler;
 		final boolean safe = request.safe != null ? request.safe : this.safe;
+		final Downloader downloader = getDownloader(request);
 
 		// Don't load if URL is the favorites key
 		if(request.url.equals(KEY_FAVORITES)) {
@@ -167,26 +275,435 @@ public class PkRSS {
 		}
 
 		// Notify callback
-		handler.onPreload(safe, request.callback.get());
+		if (!revalidation)
+			handler.onPreload(safe, request.callback.get());
 
 		// Create safe url for pagination/indexing purposes
-		String safeUrl = request.downloader == null ? downloader.toSafeUrl(request) : request.downloader.toSafeUrl(request);
+		String safeUrl = downloader.toSafeUrl(request);
 
 		// Put the page index into the request's HashMap
 		pageTracker.put(safeUrl, request.page);
 
+		// Serve pages prefetched by an earlier load right away
+		if (!revalidation) {
+			ParsedFeed prefetched = takePrefetchedPage(request, downloader, safeUrl);
+			if (prefetched != null) {
+				insert(safeUrl, prefetched.getArticles(), false);
+				handler.onLoaded(safe, request.callback.get(), prefetched);
+				prefetchPages(request, downloader, safeUrl);
+				return;
+			}
+		}
+
+		// Deliver the last known feed right away and revalidate it in the background
+		if (request.offlineFirst && !revalidation) {
+			ParsedFeed lastFeed = getLastFeed(request, downloader, safeUrl);
+			if (lastFeed != null) {
+				handler.onLoaded(safe, request.callback.get(), lastFeed);
+				revalidate(request);
+				return;
+			}
+			log("No offline copy of " + safeUrl + " available, loading from network...");
+		}
+
+		ParsedFeed feed = fetch(request, downloader, safeUrl, true);
+
+		// Revalidations only notify the callback if the feed has changed
+		if (revalidation && (feed == null || feed.isUnchanged()))
+			return;
+
+		// Notify callback
+		if (feed == null) {
+			handler.onLoadFailed(safe, request.callback.get());
+		} else {
+			handler.onLoaded(safe, request.callback.get(), feed);
+			if (!revalidation)
+				prefetchPages(request, downloader, safeUrl);
+		}
+	}
+
+	/**
+	 * Fetches & parses the pages following the specified request in the background, as
+	 * many as it asks for. Pages are only stored once requested through {@link #load(Request)}.
+	 * A request for the first page discards pages prefetched before, as they may have shifted.
+	 * @param request Request which just loaded.
+	 * @param downloader Downloader to fetch the pages with.
+	 * @param safeUrl Safe URL of the request.
+	 */
+	private void prefetchPages(Request request, final Downloader downloader, final String safeUrl) {
+		synchronized (prefetchedPages) {
+			if (request.page <= 1) {
+				Iterator<PrefetchedPage> iterator = prefetchedPages.values().iterator();
+				while (iterator.hasNext()) {
+					if (iterator.next().safeUrl.equals(safeUrl))
+						iterator.remove();
+				}
+			}
+
+			for (int page = request.page + 1; page <= request.page + request.prefetchPages; page++) {
+				final Request pageRequest = new Request.Builder(request)
+					.page(page)
+					.prefetchPages(0)
+					.staleWhileRevalidate(-1)
+					.offlineFirst(false)
+					.build();
+				String url = downloader.toUrl(pageRequest);
+				PrefetchedPage prefetched = prefetchedPages.get(url);
+				if (prefetched != null && !prefetched.isExpired())
+					continue;
+
+				final FetchedBody fetched = new FetchedBody();
+				FutureTask<ParsedFeed> task = new FutureTask<ParsedFeed>(new Callable<ParsedFeed>() {
+					@Override
+					public ParsedFeed call() throws IOException {
+						log("Prefetching page " + pageRequest.page + " of " + safeUrl);
+						return fetch(pageRequest, downloader, safeUrl, false, fetched);
+					}
+				});
+				prefetchedPages.put(url, new PrefetchedPage(safeUrl, task, fetched));
+				pageExecutor.execute(task);
+			}
+		}
+	}
+
+	/**
+	 * Takes the prefetched page for the specified request, if any. Waits for it if it is
+	 * still being fetched, or fetches it right away if it hasn't started yet. The page is
+	 * stored as the last parse of its URL, so refreshing it is recognized as unchanged.
+	 * @return The prefetched page or null if it hasn't been prefetched or failed to.
+	 */
+	private ParsedFeed takePrefetchedPage(Request request, Downloader downloader, String safeUrl) {
+		String feedUrl = downloader.toUrl(request);
+		PrefetchedPage prefetched;
+		synchronized (prefetchedPages) {
+			prefetched = prefetchedPages.remove(feedUrl);
+		}
+		if (prefetched == null || prefetched.isExpired())
+			return null;
+
+		// Running a task which already started does nothing, so this only ever waits for it
+		prefetched.task.run();
+		try {
+			ParsedFeed feed = prefetched.task.get();
+			if (feed != null) {
+				log("Serving prefetched page " + request.page + " of " + safeUrl);
+				feedHashes.put(feedUrl, prefetched.fetched.hash);
+				if (prefetched.fetched.etag != null)
+					feedETags.put(feedUrl, prefetched.fetched.etag);
+				else
+					feedETags.remove(feedUrl);
+				feedCache.put(feedUrl, feed);
+			}
+			return feed;
+		} catch (Exception e) {
+			log("Prefetching page " + request.page + " of " + safeUrl + " failed, loading it again...");
+			return null;
+		}
+	}
+
+	/**
+	 * Downloads and parses the specified request, storing its articles if the feed changed.
+	 * <p>
+	 * Delta feed requests only download the items added since the feed already held
+	 * in memory, as per RFC 3229, and merge them into it.
+	 * @param request Request to execute.
+	 * @param downloader Downloader to execute the request with.
+	 * @param safeUrl Safe URL of the request.
+	 * @param store Whether to check the body against the last parse and store the result.
+	 * If not, the feed is only parsed and returned, without touching any state.
+	 * @return The parsed feed, the last parsed feed marked as unchanged if the downloaded body
+	 * is identical to it, or null if it could not be parsed.
+	 * @throws IOException
+	 */
+	private ParsedFeed fetch(Request request, Downloader downloader, String safeUrl, boolean store) throws IOException {
+		return fetch(request, downloader, safeUrl, store, null);
+	}
+
+	/**
+	 * Similar to {@link #fetch(Request, Downloader, String, boolean)} but also reports the
+	 * hash & ETag of the downloaded body, so a feed fetched without storing it can be stored later.
+	 * @param fetched Receives the hash & ETag of the body. May be null.
+	 */
+	private ParsedFeed fetch(Request request, Downloader downloader, String safeUrl, boolean store, FetchedBody fetched) throws IOException {
+		// Pages share their safe URL, so state of the last parse is kept per page URL
+		String feedUrl = downloader.toUrl(request);
+
+		// Ask for the items added since the feed held in memory if the server supports it
+		String etag = store && request.deltaFeed && request.page <= 1 ? feedETags.get(feedUrl) : null;
+		ParsedFeed base = etag == null ? null : feedCache.get(feedUrl);
+		Request executed = base == null ? request : new Request.Builder(request)
+			.header("A-IM", "feed")
+			.header("If-None-Match", etag)
+			.build();
+
 		// Get response from this request
-		InputStream inputStream = request.downloader == null ? downloader.getStream(request) : request.downloader.getStream(request);
+		Response response = downloader.execute(executed);
+		log("Response " + response.getCode() + " for " + safeUrl + " took " + (response.getReceivedMillis() - response.getStartMillis()) + "ms");
+
+		// Nothing was added since the feed held in memory
+		if (base != null && response.getCode() == HTTP_NOT_MODIFIED) {
+			response.close();
+			log("Feed " + safeUrl + " is unchanged since " + etag + ", skipping download...");
+			ParsedFeed feed = new ParsedFeed(base.getChannel(), base.getArticles());
+			feed.setUnchanged(true);
+			return feed;
+		}
+		boolean delta = base != null && response.getCode() == HTTP_IM_USED;
+
+		// Hash the body as it streams so unchanged feeds can skip parsing altogether.
+		// Bodies already in memory, such as mapped files, are hashed and parsed in place.
+		ByteBuffer mapped = response.getByteBuffer();
+		PooledByteArrayOutputStream body = null;
+		ParsedFeed feed;
+		try {
+			long hash;
+			try {
+				if (mapped != null) {
+					hash = HashingInputStream.hash(mapped);
+					log("Mapped " + mapped.remaining() + " bytes for " + safeUrl);
+				} else {
+					HashingInputStream hashingStream = new HashingInputStream(response.getStream());
+					body = new PooledByteArrayOutputStream(bufferPool, getSizeHint(response));
+					body.readFrom(hashingStream);
+					hash = hashingStream.getHash();
+					log("Read " + response.getBytesRead() + " bytes for " + safeUrl
+						+ (response.getCompressedBytesRead() < 0 ? "" : " (" + response.getCompressedBytesRead() + " bytes compressed)")
+						+ (delta ? " (delta)" : ""));
+				}
+			} finally {
+				response.close();
+			}
+			if (fetched != null) {
+				fetched.hash = hash;
+				fetched.etag = response.getHeader("ETag");
+			}
+
+			// Revalidate stale responses in the background once this one is delivered
+			if (store && request.staleWhileRevalidate >= 0 && response.isStale())
+				revalidate(request);
+
+			// Reuse the last parse if the body hasn't changed since then
+			Long lastHash = store && !delta ? feedHashes.get(feedUrl) : null;
+			ParsedFeed lastFeed = store ? feedCache.get(feedUrl) : null;
+			if (lastHash != null && lastHash == hash && lastFeed != null) {
+				log("Feed " + safeUrl + " is unchanged, skipping parse...");
+				feed = new ParsedFeed(lastFeed.getChannel(), lastFeed.getArticles());
+				feed.setUnchanged(true);
+				return feed;
+			}
+
+			feed = parse(mapped != null ? new PooledReader(mapped, bufferPool) : new PooledReader(body.getBuffer(), body.size(), bufferPool));
+			if (store && feed != null) {
+				// Delta bodies only hold part of the feed so their hash means nothing
+				if (delta)
+					feedHashes.remove(feedUrl);
+				else
+					feedHashes.put(feedUrl, hash);
+			}
+		} finally {
+			if (body != null)
+				body.release();
+		}
+
+		if (store && feed != null) {
+			List<Article> newArticles = feed.getArticles();
+			if (delta) {
+				newArticles = getNewArticles(base.getArticles(), newArticles);
+				log("Merging " + newArticles.size() + " new articles into " + safeUrl);
+				List<Article> merged = new ArrayList<Article>(newArticles.size() + base.getArticles().size());
+				merged.addAll(newArticles);
+				merged.addAll(base.getArticles());
+				feed = new ParsedFeed(feed.getChannel() != null ? feed.getChannel() : base.getChannel(), merged);
+				feed.setUnchanged(newArticles.isEmpty());
+			}
+
+			String newETag = response.getHeader("ETag");
+			if (newETag != null)
+				feedETags.put(feedUrl, newETag);
+			else
+				feedETags.remove(feedUrl);
+
+			feedCache.put(feedUrl, feed);
+			// Delta items are newer than the feed held, so they go in front like in the merged feed
+			insert(safeUrl, newArticles, delta);
+		}
+		return feed;
+	}
+
+	/**
+	 * @param articles Articles already held.
+	 * @param candidates Articles which may or may not be new.
+	 * @return The candidates whose IDs aren't among the articles already held.
+	 */
+	private static List<Article> getNewArticles(List<Article> articles, List<Article> candidates) {
+		SparseBooleanArray known = new SparseBooleanArray(articles.size());
+		for (Article article : articles)
+			known.put(article.getId(), true);
+
+		List<Article> newArticles = new ArrayList<Article>(candidates.size());
+		for (Article candidate : candidates) {
+			if (!known.get(candidate.getId())) {
+				known.put(candidate.getId(), true);
+				newArticles.add(candidate);
+			}
+		}
+		return newArticles;
+	}
+
+	/**
+	 * A page fetched ahead of time, waiting to be requested.
+	 */
+	private static class PrefetchedPage {
+		final String safeUrl;
+		final FutureTask<ParsedFeed> task;
+		final FetchedBody fetched;
+		final long createdMillis = System.currentTimeMillis();
+
+		PrefetchedPage(String safeUrl, FutureTask<ParsedFeed> task, FetchedBody fetched) {
+			this.safeUrl = safeUrl;
+			this.task = task;
+			this.fetched = fetched;
+		}
+
+		boolean isExpired() {
+			return System.currentTimeMillis() - createdMillis > PREFETCHED_PAGE_TTL;
+		}
+	}
+
+	/**
+	 * Hash & ETag of a downloaded body, written by the thread fetching it.
+	 */
+	private static class FetchedBody {
+		volatile long hash;
+		volatile String etag;
+	}
+
+	/**
+	 * Looks up the last known feed for the specified request without touching the network.
+	 * Checks the in-memory store first, then the persistent article store if enabled,
+	 * then the {@link Downloader}'s persisted cache. A feed read from the persisted cache is
+	 * stored as the page's last parse, so a revalidation finding the same body is recognized as
+	 * unchanged, and its articles are replaced by the first page loaded afterwards like restored ones.
+	 * @param request Request to look up.
+	 * @param downloader Downloader whose cache to look into.
+	 * @param safeUrl Safe URL of the request.
+	 * @return The last known feed or null if none is available offline.
+	 */
+	private ParsedFeed getLastFeed(Request request, Downloader downloader, String safeUrl) {
+		ParsedFeed lastFeed = feedCache.get(downloader.toUrl(request));
+		if (lastFeed != null)
+			return lastFeed;
+
+		List<Article> restored = restore(safeUrl);
+		if (restored != null)
+			return new ParsedFeed(new Channel(), new ArrayList<Article>(restored));
+
+		// Accept cached responses regardless of how stale they are
+		Request cacheRequest = new Request.Builder(request)
+			.skipCache(false)
+			.maxStale(Integer.MAX_VALUE)
+			.staleWhileRevalidate(-1)
+			.onlyIfCached(true)
+			.offlineFirst(false)
+			.build();
+		try {
+			lastFeed = fetch(cacheRequest, downloader, safeUrl, true);
+		} catch (IOException e) {
+			return null;
+		}
+
+		if (lastFeed != null && request.page <= 1) {
+			synchronized (articleMap) {
+				restoredFeeds.add(safeUrl);
+			}
+		}
+		return lastFeed;
+	}
+
+	/**
+	 * @param request Request about to be executed.
+	 * @return Time in milliseconds until this request's host is no longer throttled,
+	 * or 0 if it may be executed right away.
+	 */
+	protected long getThrottleDelay(Request request) {
+		return getDownloader(request).getThrottleDelay(request);
+	}
+
+	/**
+	 * @param request Request about to be executed.
+	 * @return The request's own {@link Downloader} if it has one, a {@link FileDownloader}
+	 * for local feeds, or this instance's Downloader otherwise.
+	 */
+	private Downloader getDownloader(Request request) {
+		if (request.downloader != null)
+			return request.downloader;
+		if (!FileDownloader.canLoad(request.url))
+			return downloader;
+
+		synchronized (this) {
+			if (fileDownloader == null) {
+				fileDownloader = new FileDownloader(mContext);
+				fileDownloader.attachInstance(this);
+			}
+			return fileDownloader;
+		}
+	}
+
+	/**
+	 * Asynchronously reloads the specified request from the network.
+	 * @param request Request whose stale response was just delivered.
+	 */
+	private void revalidate(Request request) {
+		final Request revalidation = new Request.Builder(request)
+			.maxStale(-1)
+			.staleWhileRevalidate(-1)
+			.onlyIfCached(false)
+			.offlineFirst(false)
+			.build();
+
+		new AsyncTask<Void, Void, Void>() {
+			@Override
+			protected Void doInBackground(Void... params) {
+				try {
+					log("Revalidating " + revalidation.tag + " in the background...");
+					load(revalidation, true);
+				} catch (IOException e) {
+					log("Error revalidating " + revalidation.tag + "! " + e.getMessage(), Log.ERROR);
+				}
+				return null;
+			}
+		}.executeOnExecutor(AsyncTask.SERIAL_EXECUTOR);
+	}
 
-		//URL url = new URL(safeUrl);
-		//InputStream inputStream = url.openConnection().getInputStream();
+	/**
+	 * @param response Response about to be read.
+	 * @return Expected size in bytes of the response body.
+	 */
+	private static int getSizeHint(Response response) {
+		// Content-Length is meaningless if the body is decompressed on the fly
+		String contentLength = response.getHeader("Content-Length");
+		String contentEncoding = response.getHeader("Content-Encoding");
+		if (contentLength == null || contentEncoding != null && !contentEncoding.equalsIgnoreCase("identity"))
+			return BODY_SIZE_HINT;
 
+		try {
+			return (int) Math.min(Long.parseLong(contentLength) + 1, Integer.MAX_VALUE);
+		} catch (NumberFormatException e) {
+			return BODY_SIZE_HINT;
+		}
+	}
 
+	/**
+	 * Parses the passed document with whichever parser matches its root element.
+	 * @param reader Reader over the feed's XML. Closed once parsed.
+	 * @return The parsed feed or null if it could not be parsed.
+	 */
+	private ParsedFeed parse(PooledReader reader) {
 		ParsedFeed feed = null;
 		try {
 			XmlPullParser parser = Xml.newPullParser();
 			parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
-			parser.setInput(inputStream, null);
+			parser.setInput(reader);
 			while (parser.next() != XmlPullParser.END_DOCUMENT) {
 				if (parser.getEventType() == XmlPullParser.START_TAG)
 					switch (parser.getName()) {
@@ -202,25 +719,15 @@ public class PkRSS {
 					}
 			}
 		} catch (Exception e) {
-			// TODO log
+			log("Error parsing feed! " + e.getMessage(), Log.ERROR);
 		} finally {
-			inputStream.close();
-			if (request.downloader == null) {
-				downloader.closeConnection();
-			} else {
-				request.downloader.closeConnection();
-			}
+			reader.close();
 		}
 
-		// Notify callback
-		if (feed == null) {
-			handler.onLoadFailed(safe, request.callback.get());
-		} else {
-			insert(safeUrl, feed.getArticles());
-			handler.onLoaded(safe, request.callback.get(), feed);
-		}
-
-
+		// Parsers can't tell the encoding of a Reader
+		if (feed != null && feed.getChannel() != null && feed.getChannel().getEncoding() == null)
+			feed.getChannel().setEncoding(reader.getEncoding());
+		return feed;
 	}
 
 	/**
@@ -242,7 +749,8 @@ public class PkRSS {
 		if(url.equals(KEY_FAVORITES))
 			return getFavorites();
 
-		return articleMap.get(url);
+		List<Article> articleList = articleMap.get(url);
+		return articleList != null ? articleList : restore(url);
 	}
 
 	/**
@@ -254,9 +762,94 @@ public class PkRSS {
 	 */
 	public List<Article> get(String url, String search) {
 		if(search == null)
-			return articleMap.get(url);
+			return get(url);
 
-		return articleMap.get(url + "?s=" + Uri.encode(search));
+		return get(url + "?s=" + Uri.encode(search));
+	}
+
+	/**
+	 * Searches the titles, descriptions, authors & tags of every article loaded so far,
+	 * across all feeds, as well as favorites. This runs locally against an in-memory index,
+	 * so it is fast enough to run on every keystroke and works offline. Unlike
+	 * {@link RequestCreator#search(String)}, it never hits the network.
+	 * @param query Words to search for. The last one also matches words it starts.
+	 * @return Up to 100 articles containing every word, best matches first.
+	 */
+	public List<Article> search(String query) {
+		return search(query, 100);
+	}
+
+	/**
+	 * Similar to {@link PkRSS#search(String)} with a custom maximum number of results.
+	 * @param query Words to search for. The last one also matches words it starts.
+	 * @param limit Maximum number of results.
+	 * @return Articles containing every word, best matches first.
+	 */
+	public List<Article> search(String query, int limit) {
+		long time = System.currentTimeMillis();
+		List<Article> results = searchIndex.search(query, limit);
+
+		// Favorites are indexed without their content, hand out the complete row instead
+		for (int i = 0; i < results.size(); i++) {
+			int id = results.get(i).getId();
+			if (searchIndex.isPartial(id)) {
+				Article article = favoriteDatabase.get(id);
+				if (article != null)
+					results.set(i, article);
+			}
+		}
+		log("search(" + query + ") found " + results.size() + " articles in " + (System.currentTimeMillis() - time) + "ms");
+		return results;
+	}
+
+	/**
+	 * Merges the articles loaded from several feeds into one timeline, newest first.
+	 * Articles loaded into more than one of these feeds appear only once.
+	 * @param feeds Safe URLs of the feeds to merge, null for every loaded feed.
+	 * @param since Oldest article date to include in milliseconds, 0 for all.
+	 * @param limit Maximum number of articles per page.
+	 * @return The first page of the timeline.
+	 */
+	public TimelinePage timeline(Collection<String> feeds, long since, int limit) {
+		return timeline(feeds, since, limit, null);
+	}
+
+	/**
+	 * Similar to {@link PkRSS#timeline(Collection, long, int)} but fetches the page
+	 * following a previous one. Feeds are merged through an index kept sorted as articles
+	 * are inserted, so a page costs time proportional to its size rather than to the
+	 * number of loaded articles.
+	 * @param feeds Safe URLs of the feeds to merge, null for every loaded feed.
+	 * @param since Oldest article date to include in milliseconds, 0 for all.
+	 * @param limit Maximum number of articles per page.
+	 * @param cursor {@link TimelinePage#getNextCursor()} of the previous page, null for the first page.
+	 * @return The requested page.
+	 */
+	public TimelinePage timeline(Collection<String> feeds, long since, int limit, String cursor) {
+		long time = System.currentTimeMillis();
+		TimelinePage page = dateIndex.timeline(feeds, since, limit, cursor);
+		log("timeline() merged " + page.getArticles().size() + " articles in " + (System.currentTimeMillis() - time) + "ms");
+		return page;
+	}
+
+	/**
+	 * Looks up loaded articles by tag across all feeds through an index,
+	 * taking time proportional to the number of results rather than of loaded articles.
+	 * @param tag Tag to look for, ignoring case.
+	 * @return Every loaded article with this tag, in no particular order.
+	 */
+	public List<Article> getByTag(String tag) {
+		return attributeIndex.getByTag(tag);
+	}
+
+	/**
+	 * Looks up loaded articles by author across all feeds through an index,
+	 * taking time proportional to the number of results rather than of loaded articles.
+	 * @param author Author to look for, ignoring case.
+	 * @return Every loaded article by this author, in no particular order.
+	 */
+	public List<Article> getByAuthor(String author) {
+		return attributeIndex.getByAuthor(author);
 	}
 
 	/**
@@ -279,8 +872,9 @@ public class PkRSS {
 		}
 
 		// If none was found, try searching in the favorites database
-		for(Article article : favoriteDatabase.getAll()) {
-			if(article.getId() == id) {
+		if(containsFavorite(id)) {
+			Article article = favoriteDatabase.get(id);
+			if(article != null) {
 				log("get(" + id + ") took " + (System.currentTimeMillis() - time) + "ms");
 				return article;
 			}
@@ -291,6 +885,32 @@ public class PkRSS {
 		return null;
 	}
 
+	/**
+	 * Downloads an enclosure's media to a local file in the background, resuming any
+	 * interrupted download of it. See {@link EnclosureDownloader} for details.
+	 * @param enclosure Enclosure to download.
+	 * @param file Destination file.
+	 * @param listener Listener notified of progress on the main thread. May be null.
+	 * @return Future completing with the destination file. Cancel it to pause the download.
+	 */
+	public Future<File> download(Enclosure enclosure, File file, EnclosureDownloader.Listener listener) {
+		synchronized (this) {
+			if (enclosureDownloader == null)
+				enclosureDownloader = new EnclosureDownloader(this, downloader, maxEnclosureTransfers, EnclosureDownloader.DEFAULT_CONNECTIONS_PER_TRANSFER);
+		}
+		return enclosureDownloader.download(enclosure, file, listener);
+	}
+
+	/**
+	 * Looks up an image or enclosure prefetched after its article was loaded.
+	 * See {@link Builder#prefetch(int, long)}.
+	 * @param url URL of the image or enclosure, such as {@link Article#getImage()}.
+	 * @return The local copy or null if it hasn't been prefetched.
+	 */
+	public File getPrefetched(String url) {
+		return prefetcher == null || url == null ? null : prefetcher.get(url);
+	}
+
 	/**
 	 * Retrieves an ArrayList of articles from the Favorite Database.
 	 * @return Either an Article List or null if database wasn't properly started.
@@ -299,6 +919,20 @@ public class PkRSS {
 		return favoriteDatabase == null ? null : favoriteDatabase.getAll();
 	}
 
+	/**
+	 * Retrieves one page of articles from the Favorite Database. Unlike {@link #getFavorites()}
+	 * this only reads as many favorites as requested, so prefer it for large collections.
+	 * @param order Either {@link FavoritePage#ORDER_DATE} or {@link FavoritePage#ORDER_ADDED}.
+	 * @param limit Maximum number of articles per page.
+	 * @param content Whether to read article content. Leave it out for list views and
+	 * look up the full article with {@link #get(int)} once opened.
+	 * @param cursor {@link FavoritePage#getNextCursor()} of the previous page, null for the first page.
+	 * @return The requested page or null if database wasn't properly started.
+	 */
+	public FavoritePage getFavorites(int order, int limit, boolean content, String cursor) {
+		return favoriteDatabase == null ? null : favoriteDatabase.getPage(order, limit, content, cursor);
+	}
+
 	/**
 	 * Marks/Unmarks all loaded articles as read. This includes those loaded from
 	 * all URLs and those stored in the favorites database. Those loaded after this
@@ -308,26 +942,36 @@ public class PkRSS {
 	public void markAllRead(boolean read) {
 		long time = System.currentTimeMillis();
 
-		// Just clear the array and return, if marking as unread
+		// Just clear the bitmap and return, if marking as unread
 		if(!read) {
-			readList.clear();
-			writeRead();
+			synchronized (readLock) {
+				readList.clear();
+				readChanged = null;
+				readJournal.snapshot(readList);
+			}
 			log("markAllRead(" + String.valueOf(read) + ") took " + (System.currentTimeMillis() - time) + "ms");
 			return;
 		}
 
-		// Look for an article with this id in the Article HashMap
+		// Collect every loaded article id, then merge them in bulk
+		ReadBitmap ids = new ReadBitmap();
 		for(List<Article> articleList : articleMap.values()) {
 			for(Article article : articleList)
-				readList.put(article.getId(), read);
+				ids.add(article.getId());
 		}
 
-		// If none was found, try searching in the favorites database
-		for(Article article : favoriteDatabase.getAll()) {
-			readList.put(article.getId(), read);
+		// Include those stored in the favorites database
+		for(int id : getFavoriteIdArray()) {
+			ids.add(id);
+		}
+
+		synchronized (readLock) {
+			readList.or(ids);
+			if (readChanged != null)
+				readChanged.or(ids);
+			readJournal.snapshot(readList);
 		}
 
-		writeRead();
 		log("markAllRead(" + String.valueOf(read) + ") took " + (System.currentTimeMillis() - time) + "ms");
 	}
 
@@ -337,8 +981,23 @@ public class PkRSS {
 	 * @param read Whether or not to mark this id as read.
 	 */
 	public void markRead(int id, boolean read) {
-		readList.put(id, read);
-		writeRead();
+		synchronized (readLock) {
+			putRead(id, read);
+			readJournal.compactIfNeeded(readList);
+		}
+	}
+
+	/**
+	 * Updates the read state of an article, journaling it only if it changed.
+	 * Must hold {@link #readLock}.
+	 */
+	private void putRead(int id, boolean read) {
+		if (!(read ? readList.add(id) : readList.remove(id)))
+			return;
+
+		if (readChanged != null)
+			readChanged.add(id);
+		readJournal.append(id, read);
 	}
 
 	/**
@@ -347,7 +1006,9 @@ public class PkRSS {
 	 * {@code false} if it has not yet been marked as read.
 	 */
 	public boolean isRead(int id) {
-		return readList.get(id, false);
+		synchronized (readLock) {
+			return readList.contains(id);
+		}
 	}
 
 	/**
@@ -392,10 +1053,17 @@ public class PkRSS {
 		long time = System.currentTimeMillis();
 		log("Adding article " + article.getId() + " to favorites...");
 		try {
-			if (favorite)
-				favoriteDatabase.add(article);
-			else
-				favoriteDatabase.delete(article);
+			synchronized (favoriteIds) {
+				if (favorite) {
+					favoriteDatabase.add(article);
+					searchIndex.add(article);
+					favoriteIds.add(article.getId());
+				} else {
+					favoriteDatabase.delete(article);
+					favoriteIds.remove(article.getId());
+					unindex(article.getId());
+				}
+			}
 		}
 		catch (Exception e) {
 			log("Error " + (favorite ? "saving article to" : "deleting article from") + " favorites database.", Log.ERROR);
@@ -405,18 +1073,75 @@ public class PkRSS {
 		return true;
 	}
 
+	/**
+	 * Saves several {@link Article} objects to the favorites database in a single transaction,
+	 * replacing any already saved with the same ID. Use this to import or sync favorites in bulk.
+	 * @param articles Article objects to save.
+	 * @return {@code true} if successful, {@code false} if otherwise.
+	 */
+	public boolean saveFavorites(Collection<Article> articles) {
+		long time = System.currentTimeMillis();
+		try {
+			synchronized (favoriteIds) {
+				favoriteDatabase.addAll(articles);
+				searchIndex.add(articles);
+				for (Article article : articles)
+					favoriteIds.add(article.getId());
+			}
+		}
+		catch (Exception e) {
+			log("Error saving " + articles.size() + " articles to favorites database.", Log.ERROR);
+			return false;
+		}
+
+		log("Saving " + articles.size() + " articles to favorites took " + (System.currentTimeMillis() - time) + "ms");
+		return true;
+	}
+
+	/**
+	 * Deletes several articles from the favorites database in a single transaction.
+	 * @param ids IDs of the articles to delete.
+	 * @return {@code true} if successful, {@code false} if otherwise.
+	 */
+	public boolean deleteFavorites(int[] ids) {
+		long time = System.currentTimeMillis();
+		try {
+			synchronized (favoriteIds) {
+				favoriteDatabase.delete(ids);
+				for (int id : ids) {
+					favoriteIds.remove(id);
+					unindex(id);
+				}
+			}
+		}
+		catch (Exception e) {
+			log("Error deleting " + ids.length + " articles from favorites database.", Log.ERROR);
+			return false;
+		}
+
+		log("Deleting " + ids.length + " articles from favorites took " + (System.currentTimeMillis() - time) + "ms");
+		return true;
+	}
+
 	/**
 	 * Clears the favorites database.
 	 */
 	public void deleteAllFavorites() {
 		long time = System.currentTimeMillis();
 		log("Deleting all favorites...");
-		favoriteDatabase.deleteAll();
+		synchronized (favoriteIds) {
+			int[] ids = favoritesLoaded ? favoriteIds.toArray() : favoriteDatabase.getIds();
+			favoriteDatabase.deleteAll();
+			favoriteIds.clear();
+			for (int id : ids)
+				unindex(id);
+		}
 		log("Deleting all favorites took " + (System.currentTimeMillis() - time) + "ms");
 	}
 
 	/**
-	 * Searches the FavoriteDatabase for the specified ID.
+	 * Checks whether the specified ID is a favorite. This is an in-memory lookup
+	 * once favorite IDs have been loaded, which happens in the background on creation.
 	 * @param id Article ID which to search for.
 	 * @return {@code true} if database contains it or {@code false} if otherwise
 	 * or database not yet started.
@@ -425,6 +1150,10 @@ public class PkRSS {
 		if(favoriteDatabase == null)
 			return false;
 
+		synchronized (favoriteIds) {
+			if (favoritesLoaded)
+				return favoriteIds.contains(id);
+		}
 		return favoriteDatabase.contains(id);
 	}
 
@@ -433,7 +1162,15 @@ public class PkRSS {
 	 * @return {@code true} if successfully cleared or {@code false} if otherwise.
 	 */
 	public boolean clearCache() {
-		return downloader.clearCache();
+		if (articleStore != null) {
+			storeExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					articleStore.deleteAll();
+				}
+			});
+		}
+		return downloader.clearCache() & (prefetcher == null || prefetcher.clear());
 	}
 
 	/**
@@ -442,7 +1179,7 @@ public class PkRSS {
 	 * @return {@code true} if successfully cleared or {@code false} if otherwise.
 	 */
 	public boolean clearData() {
-		if (!downloader.clearCache())
+		if (!clearCache())
 			return false;
 		deleteAllFavorites();
 		markAllRead(false);
@@ -458,38 +1195,149 @@ public class PkRSS {
 
 	/**
 	 * Inserts the passed list into the article map database.
-	 * This will be cleared once the instance dies.
+	 * This will be cleared once the instance dies, unless the persistent article store
+	 * is enabled, in which case it is also written there in the background.
+	 * Articles restored from that store are replaced by the first page loaded afterwards,
+	 * while following pages are added to them.
 	 * @param url URL to associate this list with.
 	 * @param newArticles Article list to store.
+	 * @param prepend Whether the articles go before those stored, such as items added since the
+	 * feed was loaded, rather than after them.
 	 */
-	private void insert(String url, List<Article> newArticles) {
-		if(!articleMap.containsKey(url))
-			articleMap.put(url, new ArrayList<Article>());
+	private void insert(final String url, List<Article> newArticles, final boolean prepend) {
+		final Integer page = pageTracker.get(url);
+		final boolean replace;
+		List<Article> articleList;
+		List<Article> replaced = null;
+		synchronized (articleMap) {
+			replace = (page == null || page <= 1) && restoredFeeds.remove(url);
+			if(!articleMap.containsKey(url))
+				articleMap.put(url, new ArrayList<Article>());
+
+			articleList = articleMap.get(url);
+			if (replace) {
+				replaced = new ArrayList<Article>(articleList);
+				attributeIndex.remove(articleList);
+				dateIndex.remove(url);
+				articleList.clear();
+			}
+			if (prepend)
+				articleList.addAll(0, newArticles);
+			else
+				articleList.addAll(newArticles);
+			attributeIndex.add(newArticles);
+			dateIndex.add(url, newArticles);
+		}
 
-		List<Article> articleList = articleMap.get(url);
-		articleList.addAll(newArticles);
+		// Restored articles the feed no longer holds are searchable only if loaded elsewhere
+		if (replaced != null) {
+			for (Article article : replaced)
+				unindex(article.getId());
+		}
 
 		log("New size for " + url + " is " + articleList.size());
+
+		if (articleStore != null) {
+			final List<Article> articles = new ArrayList<Article>(newArticles);
+			storeExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						articleStore.put(url, page == null ? 1 : page, articles, replace, prepend);
+					} catch (Exception e) {
+						log("Failed to store articles of " + url + ": " + e.getMessage(), Log.ERROR);
+					}
+				}
+			});
+		}
+
+		searchIndex.add(newArticles);
+
+		if (prefetcher != null)
+			prefetcher.prefetch(newArticles);
+	}
+
+	/**
+	 * Removes an article from the search index unless it is still loaded into a feed or a favorite.
+	 * @param id ID of the article removed from a feed or the favorites.
+	 */
+	private void unindex(int id) {
+		if (!attributeIndex.contains(id) && !containsFavorite(id))
+			searchIndex.remove(id);
 	}
 
 	/**
-	 * Asynchronously loads read data.
+	 * Restores the articles & page position of a feed from the persistent article store,
+	 * unless it was already loaded in this process.
+	 * @param url Safe URL of the feed.
+	 * @return The restored articles or null if the store is disabled or doesn't hold this feed.
+	 */
+	private List<Article> restore(String url) {
+		if (articleStore == null)
+			return null;
+
+		synchronized (articleMap) {
+			List<Article> articleList = articleMap.get(url);
+			if (articleList != null)
+				return articleList;
+
+			long time = System.currentTimeMillis();
+			try {
+				articleList = articleStore.get(url);
+			} catch (Exception e) {
+				log("Failed to restore articles of " + url + ": " + e.getMessage(), Log.ERROR);
+				return null;
+			}
+			if (articleList == null)
+				return null;
+
+			articleMap.put(url, articleList);
+			restoredFeeds.add(url);
+			searchIndex.add(articleList);
+			attributeIndex.add(articleList);
+			dateIndex.add(url, articleList);
+			if (!pageTracker.containsKey(url))
+				pageTracker.put(url, articleStore.getPage(url));
+			log("Restored " + articleList.size() + " articles of " + url + " in " + (System.currentTimeMillis() - time) + "ms");
+			return articleList;
+		}
+	}
+
+	/**
+	 * Loads read data by mapping its snapshot and replaying the journal, so read state is
+	 * available right away. Read data saved in preferences by older versions is migrated
+	 * asynchronously, and only deleted once the snapshot holding it is on disk. A migration
+	 * cut short is therefore repeated on the next launch.
 	 */
 	private void getRead() {
+		readList = readJournal.load();
+		if (!mPrefs.contains("READ_ARRAY_SIZE"))
+			return;
+
+		readChanged = new ReadBitmap();
 		// Execute on background thread as we don't know how large this is
 		new AsyncTask<Void, Void, Void>() {
 			@Override
 			protected Void doInBackground(Void... params) {
-				int size = mPrefs.getInt("READ_ARRAY_SIZE", 0);
-				boolean value;
-				if(size < 1)
-					return null;
-
-				for(int i = 0, key; i < size; i++) {
-					key = mPrefs.getInt("READ_ARRAY_KEY_" + i, 0);
-					value = mPrefs.getBoolean("READ_ARRAY_VALUE_" + i, false);
-
-					readList.put(key, value);
+				final SparseBooleanArray loaded = new SparseBooleanArray();
+				getLegacyRead(loaded);
+
+				// Changes made meanwhile are newer than anything loaded
+				synchronized (readLock) {
+					// Everything was marked unread meanwhile if this is gone
+					if (readChanged != null) {
+						for (int i = 0, size = loaded.size(); i < size; i++) {
+							if (loaded.valueAt(i) && !readChanged.contains(loaded.keyAt(i)))
+								readList.add(loaded.keyAt(i));
+						}
+						readChanged = null;
+					}
+					readJournal.snapshot(readList, new Runnable() {
+						@Override
+						public void run() {
+							removeLegacyRead(loaded.size());
+						}
+					});
 				}
 				return null;
 			}
@@ -497,31 +1345,73 @@ public class PkRSS {
 	}
 
 	/**
-	 * Asynchronously saves read data.
+	 * @return The IDs of every favorite, from memory if already loaded.
 	 */
-	private void writeRead() {
-		// Execute on background thread as we don't know how large this is
-		new AsyncTask<Void, Void, Void>() {
+	private int[] getFavoriteIdArray() {
+		synchronized (favoriteIds) {
+			if (favoritesLoaded)
+				return favoriteIds.toArray();
+		}
+		return favoriteDatabase.getIds();
+	}
+
+	/**
+	 * Asynchronously loads the IDs of every favorite so checking for one never touches disk,
+	 * then adds favorites to the search index page by page. This runs on its own background
+	 * thread so feed loads don't queue behind a scan of the favorites table.
+	 */
+	private void getFavoriteIds() {
+		ExecutorService executor = Executors.newSingleThreadExecutor(new BackgroundThreadFactory("PkRSS-Favorites"));
+		executor.execute(new Runnable() {
 			@Override
-			protected Void doInBackground(Void... params) {
-				// Get editor & basic variables
-				SharedPreferences.Editor editor = mPrefs.edit();
-				int size = readList.size();
-				boolean value;
-
-				editor.putInt("READ_ARRAY_SIZE", size);
-				for(int i = 0, key; i < size; i++) {
-					key = readList.keyAt(i);
-					value = readList.get(key);
-
-					editor.putInt("READ_ARRAY_KEY_" + i, key);
-					editor.putBoolean("READ_ARRAY_VALUE_" + i, value);
+			public void run() {
+				// Hold the lock so no favorite is saved or deleted in between
+				synchronized (favoriteIds) {
+					for (int id : favoriteDatabase.getIds())
+						favoriteIds.add(id);
+					favoritesLoaded = true;
+					log("Loaded " + favoriteIds.size() + " favorite IDs");
 				}
-				editor.commit();
 
-				return null;
+				// Indexing doesn't need content, search resolves these to complete rows, and copies loaded from feeds meanwhile are complete
+				String cursor = null;
+				do {
+					FavoritePage page = favoriteDatabase.getPage(FavoritePage.ORDER_ADDED, FAVORITE_INDEX_PAGE_SIZE, false, cursor);
+					searchIndex.addMissing(page.getArticles());
+					cursor = page.getNextCursor();
+				} while (cursor != null);
 			}
-		}.executeOnExecutor(AsyncTask.SERIAL_EXECUTOR);
+		});
+		// The thread exits once done
+		executor.shutdown();
+	}
+
+	/**
+	 * Loads read data saved in preferences by older versions.
+	 */
+	private void getLegacyRead(SparseBooleanArray readList) {
+		int size = mPrefs.getInt("READ_ARRAY_SIZE", 0);
+		for(int i = 0, key; i < size; i++) {
+			key = mPrefs.getInt("READ_ARRAY_KEY_" + i, 0);
+			readList.put(key, mPrefs.getBoolean("READ_ARRAY_VALUE_" + i, false));
+		}
+	}
+
+	/**
+	 * Deletes read data saved in preferences by older versions once migrated.
+	 */
+	private void removeLegacyRead(int size) {
+		if (!mPrefs.contains("READ_ARRAY_SIZE"))
+			return;
+
+		SharedPreferences.Editor editor = mPrefs.edit();
+		editor.remove("READ_ARRAY_SIZE");
+		for(int i = 0; i < size; i++) {
+			editor.remove("READ_ARRAY_KEY_" + i);
+			editor.remove("READ_ARRAY_VALUE_" + i);
+		}
+		editor.commit();
+		log("Migrated " + size + " read states to the read journal");
 	}
 
 	protected final void log(String message) {
@@ -570,6 +1460,23 @@ public class PkRSS {
 		private Downloader downloader;
 		private boolean loggingEnabled;
 		private boolean safe;
+		private File cacheDir;
+		private long cacheSize = Downloader.DEFAULT_CACHE_SIZE;
+		private int cacheMaxAge = Downloader.DEFAULT_CACHE_MAX_AGE;
+		private long connectTimeout;
+		private long readTimeout;
+		private boolean timeoutsSet;
+		private RetryPolicy retryPolicy;
+		private CircuitBreaker circuitBreaker;
+		private AdaptiveTimeouts adaptiveTimeouts;
+		private boolean adaptiveTimeoutsSet;
+		private RateLimiter rateLimiter;
+		private boolean rateLimiterSet;
+		private int maxEnclosureTransfers = EnclosureDownloader.DEFAULT_MAX_TRANSFERS;
+		private int prefetchArticles;
+		private long prefetchSize;
+		private long prefetchEnclosureSize;
+		private boolean articleStore;
 
 		/**
 		 * Start building a new {@link PkRSS} instance.
@@ -601,6 +1508,131 @@ public class PkRSS {
 			return this;
 		}
 
+		/**
+		 * Specifies the directory in which the default {@link Downloader} stores its HTTP cache.
+		 * Ignored if a custom Downloader is set. <br />
+		 * <b>Default: </b> A subdirectory of {@link Context#getCacheDir()}
+		 */
+		public Builder cacheDir(File cacheDir) {
+			this.cacheDir = cacheDir;
+			return this;
+		}
+
+		/**
+		 * Specifies the maximum size in bytes of the default {@link Downloader}'s HTTP cache.
+		 * Size it to fit all of your subscribed feeds for the best hit rate.
+		 * Ignored if a custom Downloader is set. <br />
+		 * <b>Default: </b> 10 MB
+		 */
+		public Builder cacheSize(long cacheSize) {
+			this.cacheSize = cacheSize;
+			return this;
+		}
+
+		/**
+		 * Specifies the time in seconds for which cached responses are considered fresh by
+		 * the default {@link Downloader}. Ignored if a custom Downloader is set. <br />
+		 * <b>Default: </b> 2 hours
+		 */
+		public Builder cacheMaxAge(int cacheMaxAge) {
+			this.cacheMaxAge = cacheMaxAge;
+			return this;
+		}
+
+		/**
+		 * Specifies the connect and read timeouts in milliseconds for network requests. <br />
+		 * <b>Default: </b> 15 seconds to connect, 45 seconds to read
+		 */
+		public Builder timeouts(long connectTimeout, long readTimeout) {
+			this.connectTimeout = connectTimeout;
+			this.readTimeout = readTimeout;
+			this.timeoutsSet = true;
+			return this;
+		}
+
+		/**
+		 * Specifies how per-host timeouts are derived from observed latencies.
+		 * Pass null to always use the fixed {@link #timeouts(long, long)}. <br />
+		 * <b>Default: </b> 3x the 95th latency percentile, between 2-30 seconds to connect and 5-90 seconds to read
+		 */
+		public Builder adaptiveTimeouts(AdaptiveTimeouts adaptiveTimeouts) {
+			this.adaptiveTimeouts = adaptiveTimeouts;
+			this.adaptiveTimeoutsSet = true;
+			return this;
+		}
+
+		/**
+		 * Specifies how fast requests may hit the same host. Requests for throttled hosts
+		 * wait without holding a worker thread. Pass null to disable rate limiting. <br />
+		 * <b>Default: </b> 2 requests per second with bursts of up to 5 per host
+		 */
+		public Builder rateLimiter(RateLimiter rateLimiter) {
+			this.rateLimiter = rateLimiter;
+			this.rateLimiterSet = true;
+			return this;
+		}
+
+		/**
+		 * Specifies whether and when failed requests are retried. <br />
+		 * <b>Default: </b> Up to 2 retries with jittered exponential backoff starting at 1 second
+		 */
+		public Builder retryPolicy(RetryPolicy retryPolicy) {
+			this.retryPolicy = retryPolicy;
+			return this;
+		}
+
+		/**
+		 * Specifies the per-host circuit breaker which fails requests fast after repeated failures. <br />
+		 * <b>Default: </b> Opens after 5 consecutive failures for 60 seconds
+		 */
+		public Builder circuitBreaker(CircuitBreaker circuitBreaker) {
+			this.circuitBreaker = circuitBreaker;
+			return this;
+		}
+
+		/**
+		 * Specifies how many enclosures may be downloaded at once through {@link #download(Enclosure, File, EnclosureDownloader.Listener)}. <br />
+		 * <b>Default: </b> 2
+		 */
+		public Builder maxEnclosureTransfers(int maxEnclosureTransfers) {
+			this.maxEnclosureTransfers = maxEnclosureTransfers;
+			return this;
+		}
+
+		/**
+		 * Enables downloading the images of the first new articles of every load into a
+		 * disk cache, where they can be looked up through {@link #getPrefetched(String)}. <br />
+		 * <b>Default: </b> Disabled
+		 * @param articles Number of new articles per load to prefetch for.
+		 * @param maxSize Maximum size of the prefetch cache in bytes.
+		 */
+		public Builder prefetch(int articles, long maxSize) {
+			this.prefetchArticles = articles;
+			this.prefetchSize = maxSize;
+			return this;
+		}
+
+		/**
+		 * Also prefetches enclosures no larger than the specified size along with images.
+		 * Requires {@link #prefetch(int, long)}. <br />
+		 * <b>Default: </b> 0, enclosures are never prefetched
+		 */
+		public Builder prefetchEnclosures(long maxEnclosureSize) {
+			this.prefetchEnclosureSize = maxEnclosureSize;
+			return this;
+		}
+
+		/**
+		 * Toggle whether loaded articles and page positions are persisted, so feeds can be shown
+		 * on a cold start before reaching the network. Feeds are restored when first accessed
+		 * through {@link #get(String)} or loaded with {@link RequestCreator#offlineFirst()}. <br />
+		 * <b>Default: </b> {@code false}
+		 */
+		public Builder articleStore(boolean enabled) {
+			this.articleStore = enabled;
+			return this;
+		}
+
 		/**
 		 * Toggle whether debug logging is enabled.
 		 * <b>Default: </b> {@code false}
@@ -624,12 +1656,28 @@ public class PkRSS {
 		 */
 		public PkRSS build() {
 			if(downloader == null)
-				downloader = Utils.createDefaultDownloader(context);
+				downloader = Utils.createDefaultDownloader(context, cacheDir, cacheSize, cacheMaxAge);
 
 			if(handler == null)
 				handler = new CallbackHandler();
 
-			return new PkRSS(context, handler, downloader, loggingEnabled, safe);
+			if(timeoutsSet)
+				downloader.setTimeouts(connectTimeout, readTimeout);
+			if(retryPolicy != null)
+				downloader.setRetryPolicy(retryPolicy);
+			if(circuitBreaker != null)
+				downloader.setCircuitBreaker(circuitBreaker);
+			if(adaptiveTimeoutsSet)
+				downloader.setAdaptiveTimeouts(adaptiveTimeouts);
+			if(rateLimiterSet)
+				downloader.setRateLimiter(rateLimiter);
+
+			Prefetcher prefetcher = null;
+			if(prefetchArticles > 0 && prefetchSize > 0)
+				prefetcher = new Prefetcher(downloader, new File(context.getCacheDir(), "prefetch"), prefetchSize, prefetchArticles, prefetchEnclosureSize);
+
+			return new PkRSS(context, handler, downloader, loggingEnabled, safe, maxEnclosureTransfers, prefetcher,
+			                 articleStore ? new ArticleStore(context) : null);
 		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,153 @@
+package com.pkmmte.pkrss;
+
+import com.pkmmte.pkrss.downloader.BufferPool;
+
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A {@link Reader} decoding an XML document held in memory as the parser reads it.
+ * <p>
+ * Handing the parser a Reader instead of a stream skips the decoding buffers an
+ * InputStreamReader would allocate for every load. The document is decoded incrementally
+ * into a single pooled char buffer, so memory use stays constant however large the document,
+ * including memory-mapped files which are only paged in as they are read. The encoding is
+ * detected the same way an XML parser would: from a byte order mark, the XML declaration,
+ * or UTF-8. The buffer is returned to its pool once this reader is closed.
+ */
+class PooledReader extends Reader {
+	private static final Pattern ENCODING_PATTERN = Pattern.compile("^<\\?xml[^>]*encoding\\s*=\\s*[\"']([A-Za-z0-9._:-]+)[\"']");
+	private static final int DECLARATION_LENGTH = 256;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final int BUFFER_SIZE = 8192;
+
+	private final BufferPool pool;
+	private final String encoding;
+	private final ByteBuffer bytes;
+	private final CharsetDecoder decoder;
+	private char[] chars;
+	private CharBuffer output;
+	private boolean decoded;
+	private boolean flushed;
+
+	/**
+	 * Decodes the specified XML document.
+	 * @param bytes Buffer holding the document.
+	 * @param count Number of valid bytes in the buffer.
+	 * @param pool Pool to borrow the char buffer from.
+	 */
+	PooledReader(byte[] bytes, int count, BufferPool pool) {
+		this(ByteBuffer.wrap(bytes, 0, count), pool);
+	}
+
+	/**
+	 * Decodes the specified XML document straight from a buffer, such as a memory-mapped file.
+	 * @param bytes Buffer holding the document between its position and limit.
+	 * @param pool Pool to borrow the char buffer from.
+	 */
+	PooledReader(ByteBuffer bytes, BufferPool pool) {
+		this.pool = pool;
+		bytes = bytes.duplicate();
+		int count = bytes.remaining();
+
+		// Skip byte order marks as the decoder would leave them in place
+		Charset charset;
+		int offset = 0;
+		if (count >= 3 && byteAt(bytes, 0) == 0xef && byteAt(bytes, 1) == 0xbb && byteAt(bytes, 2) == 0xbf) {
+			charset = UTF_8;
+			offset = 3;
+		} else if (count >= 2 && byteAt(bytes, 0) == 0xfe && byteAt(bytes, 1) == 0xff) {
+			charset = Charset.forName("UTF-16BE");
+			offset = 2;
+		} else if (count >= 2 && byteAt(bytes, 0) == 0xff && byteAt(bytes, 1) == 0xfe) {
+			charset = Charset.forName("UTF-16LE");
+			offset = 2;
+		} else if (count >= 2 && byteAt(bytes, 0) == 0 && byteAt(bytes, 1) == '<') {
+			charset = Charset.forName("UTF-16BE");
+		} else if (count >= 2 && byteAt(bytes, 0) == '<' && byteAt(bytes, 1) == 0) {
+			charset = Charset.forName("UTF-16LE");
+		} else {
+			charset = declaredCharset(bytes);
+		}
+		this.encoding = charset.name();
+		bytes.position(bytes.position() + offset);
+		this.bytes = bytes;
+
+		this.decoder = charset.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		this.chars = pool.acquireChars(BUFFER_SIZE);
+		this.output = CharBuffer.wrap(chars);
+		output.limit(0);
+	}
+
+	/**
+	 * @return Name of the encoding this document was decoded with.
+	 */
+	String getEncoding() {
+		return encoding;
+	}
+
+	@Override
+	public int read(char[] buffer, int offset, int count) {
+		if (chars == null || !output.hasRemaining() && !fill())
+			return -1;
+
+		int read = Math.min(count, output.remaining());
+		output.get(buffer, offset, read);
+		return read;
+	}
+
+	@Override
+	public void close() {
+		if (chars != null) {
+			pool.release(chars);
+			chars = null;
+			output = null;
+		}
+	}
+
+	/**
+	 * Decodes the next chars of the document into the buffer.
+	 * @return {@code true} if any were decoded, {@code false} at the end of the document.
+	 */
+	private boolean fill() {
+		output.clear();
+		// The whole document is at hand, so every call is the last as far as the decoder is concerned
+		if (!decoded)
+			decoded = decoder.decode(bytes, output, true).isUnderflow();
+		if (decoded && !flushed)
+			flushed = decoder.flush(output).isUnderflow();
+		output.flip();
+		return output.hasRemaining();
+	}
+
+	private static int byteAt(ByteBuffer bytes, int index) {
+		return bytes.get(bytes.position() + index) & 0xff;
+	}
+
+	/**
+	 * @return The charset named in the XML declaration or UTF-8 if none is.
+	 */
+	private static Charset declaredCharset(ByteBuffer bytes) {
+		char[] declaration = new char[Math.min(bytes.remaining(), DECLARATION_LENGTH)];
+		for (int i = 0; i < declaration.length; i++)
+			declaration[i] = (char) byteAt(bytes, i);
+		Matcher matcher = ENCODING_PATTERN.matcher(CharBuffer.wrap(declaration));
+		if (!matcher.find())
+			return UTF_8;
+
+		try {
+			return Charset.forName(matcher.group(1).toUpperCase(Locale.US));
+		} catch (Exception e) {
+			return UTF_8;
+		}
+	}
+}
@@ -0,0 +1,210 @@
+package com.pkmmte.pkrss;
+
+import android.net.Uri;
+import android.util.Log;
+import com.pkmmte.pkrss.downloader.BufferPool;
+import com.pkmmte.pkrss.downloader.Downloader;
+import com.pkmmte.pkrss.downloader.Response;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Downloads article images, and optionally small enclosures, right after a feed loads.
+ * <p>
+ * Files go into a size-limited disk cache evicting the least recently used files first,
+ * so scrolling a freshly loaded feed can show its images straight from local storage.
+ * Prefetches run one at a time on a background priority thread and are deduplicated
+ * by URL. Only HTTP URLs are prefetched.
+ */
+class Prefetcher {
+	private static final int BUFFER_SIZE = 16 * 1024;
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private final Downloader downloader;
+	private final File dir;
+	private final long maxSize;
+	private final int maxArticles;
+	private final long maxEnclosureSize;
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(new BackgroundThreadFactory("PkRSS-Prefetch"));
+	private final Set<String> queued = new HashSet<String>();
+	private final BufferPool bufferPool = BufferPool.getDefault();
+	private PkRSS singleton;
+
+	/**
+	 * @param downloader Downloader executing the prefetch requests.
+	 * @param dir Directory in which to store prefetched files.
+	 * @param maxSize Maximum total size of prefetched files in bytes.
+	 * @param maxArticles Number of new articles per load to prefetch for.
+	 * @param maxEnclosureSize Largest enclosure to prefetch in bytes, 0 to never prefetch enclosures.
+	 */
+	Prefetcher(Downloader downloader, File dir, long maxSize, int maxArticles, long maxEnclosureSize) {
+		this.downloader = downloader;
+		this.dir = dir;
+		this.maxSize = maxSize;
+		this.maxArticles = maxArticles;
+		this.maxEnclosureSize = maxEnclosureSize;
+	}
+
+	/**
+	 * Attaches a {@link PkRSS} instance to this Prefetcher for logging purposes.
+	 */
+	void attachInstance(PkRSS singleton) {
+		this.singleton = singleton;
+	}
+
+	/**
+	 * Queues the images & small enclosures of the first new articles for prefetching.
+	 * @param articles Newly inserted articles, in feed order.
+	 */
+	void prefetch(List<Article> articles) {
+		for (int i = 0, count = Math.min(articles.size(), maxArticles); i < count; i++) {
+			Article article = articles.get(i);
+			if (article.getImage() != null)
+				enqueue(article.getImage().toString(), maxSize / 4);
+
+			Enclosure enclosure = article.getEnclosure();
+			if (maxEnclosureSize > 0 && enclosure != null && enclosure.getUrl() != null && declaredLength(enclosure) <= maxEnclosureSize)
+				enqueue(enclosure.getUrl(), maxEnclosureSize);
+		}
+	}
+
+	/**
+	 * @param url URL of an image or enclosure.
+	 * @return The prefetched file for this URL or null if it isn't available locally.
+	 */
+	File get(String url) {
+		File file = fileFor(url);
+		if (!file.isFile())
+			return null;
+
+		// Keep recently used files from being evicted
+		file.setLastModified(System.currentTimeMillis());
+		return file;
+	}
+
+	/**
+	 * Deletes every prefetched file.
+	 * @return {@code true} if successful, {@code false} if otherwise.
+	 */
+	boolean clear() {
+		return Utils.deleteDir(dir);
+	}
+
+	private void enqueue(final String url, final long maxLength) {
+		String scheme = Uri.parse(url).getScheme();
+		if (!"http".equalsIgnoreCase(scheme) && !"https".equalsIgnoreCase(scheme))
+			return;
+
+		synchronized (queued) {
+			if (!queued.add(url))
+				return;
+		}
+
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if (!fileFor(url).isFile())
+						download(url, maxLength);
+				} catch (IOException e) {
+					singleton.log("Failed to prefetch " + url + ": " + e.getMessage(), Log.WARN);
+				} finally {
+					synchronized (queued) {
+						queued.remove(url);
+					}
+				}
+			}
+		});
+	}
+
+	private void download(String url, long maxLength) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Could not create prefetch directory " + dir);
+
+		// Prefetched files are cached here so keep them out of the HTTP cache
+		Response response = downloader.execute(new Request.Builder(url).noStore(true).background(true).build());
+		File file = fileFor(url);
+		File temp = new File(file.getPath() + TEMP_SUFFIX);
+		long length = 0;
+		byte[] buffer = bufferPool.acquireBytes(BUFFER_SIZE);
+		try {
+			InputStream inputStream = response.getStream();
+			OutputStream outputStream = new FileOutputStream(temp);
+			try {
+				int read;
+				while ((read = inputStream.read(buffer)) != -1) {
+					length += read;
+					if (length > maxLength)
+						throw new IOException("Larger than " + maxLength + " bytes");
+					outputStream.write(buffer, 0, read);
+				}
+			} finally {
+				outputStream.close();
+			}
+
+			if (!temp.renameTo(file))
+				throw new IOException("Could not move " + temp + " to " + file);
+		} finally {
+			bufferPool.release(buffer);
+			response.close();
+			temp.delete();
+		}
+
+		singleton.log("Prefetched " + length + " bytes from " + url);
+		trim();
+	}
+
+	/**
+	 * Evicts the least recently used files until the cache fits its size limit.
+	 */
+	private void trim() {
+		File[] files = dir.listFiles();
+		if (files == null)
+			return;
+
+		long size = 0;
+		for (File file : files)
+			size += file.length();
+		if (size <= maxSize)
+			return;
+
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File lhs, File rhs) {
+				long l = lhs.lastModified();
+				long r = rhs.lastModified();
+				return l < r ? -1 : l > r ? 1 : 0;
+			}
+		});
+		for (int i = 0; i < files.length && size > maxSize; i++) {
+			long length = files[i].length();
+			if (files[i].delete())
+				size -= length;
+		}
+	}
+
+	private File fileFor(String url) {
+		return new File(dir, Utils.md5Hex(url));
+	}
+
+	private static long declaredLength(Enclosure enclosure) {
+		try {
+			long length = enclosure.getLength();
+			return length > 0 ? length : Long.MAX_VALUE;
+		} catch (Exception e) {
+			// Unknown lengths could be anything, leave them alone
+			return Long.MAX_VALUE;
+		}
+	}
+}
@@ -0,0 +1,533 @@
+package com.pkmmte.pkrss;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A compressed bitmap of article IDs, organized like a Roaring bitmap.
+ * <p>
+ * IDs are split by their high 16 bits into containers holding the low 16 bits, either as
+ * a sorted array while sparse or as a 65536 bit bitmap once dense. Membership checks are a
+ * binary search over the container keys followed by a lookup in one container, and bulk
+ * operations such as {@link #or(ReadBitmap)} run container by container.
+ * <p>
+ * A bitmap can be {@link #map(File) mapped} straight from the file it was
+ * {@link #write(File) written} to. Containers are then read from the mapping in place and
+ * only copied to the heap once modified, so a mapped bitmap is usable right away.
+ */
+class ReadBitmap {
+	private static final int MAGIC = 0x504b5242;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 12;
+	private static final int ENTRY_SIZE = 11;
+
+	// Arrays larger than this take more room than a bitmap
+	private static final int ARRAY_MAX_SIZE = 4096;
+	private static final int BITMAP_WORDS = 1024;
+
+	private static final byte TYPE_ARRAY = 0;
+	private static final byte TYPE_BITMAP = 1;
+
+	private char[] keys;
+	private Container[] containers;
+	private int count;
+
+	ReadBitmap() {
+		keys = new char[4];
+		containers = new Container[4];
+	}
+
+	private ReadBitmap(char[] keys, Container[] containers, int count) {
+		this.keys = keys;
+		this.containers = containers;
+		this.count = count;
+	}
+
+	/**
+	 * Maps a bitmap previously written to the passed file. Only the container index is
+	 * read up front, which makes this cheap regardless of the bitmap's size.
+	 * @param file File the bitmap was written to.
+	 * @return The mapped bitmap.
+	 * @throws IOException If the file can't be read or isn't a bitmap.
+	 */
+	static ReadBitmap map(File file) throws IOException {
+		FileInputStream inputStream = new FileInputStream(file);
+		ByteBuffer buffer;
+		try {
+			FileChannel channel = inputStream.getChannel();
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			// The mapping stays valid after the channel is closed
+			inputStream.close();
+		}
+
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+			throw new IOException("Not a read bitmap: " + file);
+
+		int count = buffer.getInt(8);
+		if (count < 0 || HEADER_SIZE + (long) count * ENTRY_SIZE > buffer.capacity())
+			throw new IOException("Corrupt read bitmap: " + file);
+
+		char[] keys = new char[Math.max(4, count)];
+		Container[] containers = new Container[keys.length];
+		for (int i = 0, position = HEADER_SIZE; i < count; i++, position += ENTRY_SIZE) {
+			keys[i] = buffer.getChar(position);
+			byte type = buffer.get(position + 2);
+			int cardinality = buffer.getInt(position + 3);
+			int offset = buffer.getInt(position + 7);
+			int length = type == TYPE_BITMAP ? BITMAP_WORDS * 8 : cardinality * 2;
+			if (offset < 0 || (long) offset + length > buffer.capacity() || i > 0 && keys[i] <= keys[i - 1])
+				throw new IOException("Corrupt read bitmap: " + file);
+
+			containers[i] = new MappedContainer(buffer, type, offset, cardinality);
+		}
+		return new ReadBitmap(keys, containers, count);
+	}
+
+	/**
+	 * Writes this bitmap to the passed file so it can be {@link #map(File) mapped} later.
+	 * The file is written in place, so write to a temporary file and rename it to
+	 * replace a bitmap which may be mapped.
+	 * @param file File to write to.
+	 * @throws IOException
+	 */
+	void write(File file) throws IOException {
+		FileOutputStream outputStream = new FileOutputStream(file);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(count);
+
+			int offset = HEADER_SIZE + count * ENTRY_SIZE;
+			for (int i = 0; i < count; i++) {
+				Container container = containers[i];
+				out.writeChar(keys[i]);
+				out.writeByte(container.isBitmap() ? TYPE_BITMAP : TYPE_ARRAY);
+				out.writeInt(container.cardinality());
+				out.writeInt(offset);
+				offset += container.isBitmap() ? BITMAP_WORDS * 8 : container.cardinality() * 2;
+			}
+			for (int i = 0; i < count; i++)
+				containers[i].write(out);
+
+			out.flush();
+			outputStream.getFD().sync();
+		} finally {
+			outputStream.close();
+		}
+	}
+
+	/**
+	 * @return {@code true} if this bitmap contains the passed ID.
+	 */
+	boolean contains(int id) {
+		int index = indexOf(high(id));
+		return index >= 0 && containers[index].contains(low(id));
+	}
+
+	/**
+	 * Adds the passed ID to this bitmap.
+	 * @return {@code true} if it wasn't part of it before.
+	 */
+	boolean add(int id) {
+		char key = high(id);
+		int index = indexOf(key);
+		if (index < 0) {
+			index = -index - 1;
+			insert(index, key, new ArrayContainer());
+		}
+
+		Container container = containers[index];
+		int cardinality = container.cardinality();
+		containers[index] = container.add(low(id));
+		return containers[index].cardinality() != cardinality;
+	}
+
+	/**
+	 * Removes the passed ID from this bitmap.
+	 * @return {@code true} if it was part of it before.
+	 */
+	boolean remove(int id) {
+		int index = indexOf(high(id));
+		if (index < 0)
+			return false;
+
+		Container container = containers[index];
+		int cardinality = container.cardinality();
+		container = container.remove(low(id));
+		if (container.cardinality() == 0) {
+			System.arraycopy(keys, index + 1, keys, index, count - index - 1);
+			System.arraycopy(containers, index + 1, containers, index, count - index - 1);
+			containers[--count] = null;
+		} else {
+			containers[index] = container;
+		}
+		return container.cardinality() != cardinality;
+	}
+
+	/**
+	 * Adds every ID of the passed bitmap to this one.
+	 */
+	void or(ReadBitmap other) {
+		for (int i = 0; i < other.count; i++) {
+			int index = indexOf(other.keys[i]);
+			if (index < 0)
+				insert(-index - 1, other.keys[i], other.containers[i].copy());
+			else
+				containers[index] = containers[index].or(other.containers[i]);
+		}
+	}
+
+	/**
+	 * Removes every ID.
+	 */
+	void clear() {
+		keys = new char[4];
+		containers = new Container[4];
+		count = 0;
+	}
+
+	/**
+	 * @return Number of IDs in this bitmap.
+	 */
+	int cardinality() {
+		int cardinality = 0;
+		for (int i = 0; i < count; i++)
+			cardinality += containers[i].cardinality();
+		return cardinality;
+	}
+
+	/**
+	 * @return A copy of this bitmap. Mapped containers are shared as they are never modified.
+	 */
+	ReadBitmap copy() {
+		Container[] containers = new Container[this.containers.length];
+		for (int i = 0; i < count; i++)
+			containers[i] = this.containers[i] instanceof MappedContainer ? this.containers[i] : this.containers[i].copy();
+		return new ReadBitmap(keys.clone(), containers, count);
+	}
+
+	private int indexOf(char key) {
+		return Arrays.binarySearch(keys, 0, count, key);
+	}
+
+	private void insert(int index, char key, Container container) {
+		if (count == keys.length) {
+			keys = Arrays.copyOf(keys, count * 2);
+			containers = Arrays.copyOf(containers, count * 2);
+		}
+		System.arraycopy(keys, index, keys, index + 1, count - index);
+		System.arraycopy(containers, index, containers, index + 1, count - index);
+		keys[index] = key;
+		containers[index] = container;
+		count++;
+	}
+
+	private static char high(int id) {
+		return (char) (id >>> 16);
+	}
+
+	private static char low(int id) {
+		return (char) id;
+	}
+
+	/**
+	 * Holds the low 16 bits of the IDs sharing the same high 16 bits.
+	 * Modifications return the container to use from then on, which may be a different one.
+	 */
+	private static abstract class Container {
+		abstract boolean contains(char value);
+		abstract Container add(char value);
+		abstract Container remove(char value);
+		abstract int cardinality();
+		abstract boolean isBitmap();
+		abstract Container copy();
+		abstract void write(DataOutputStream out) throws IOException;
+
+		Container or(Container other) {
+			BitmapContainer bitmap = toBitmap();
+			other.orInto(bitmap.words);
+			bitmap.recount();
+			return bitmap.cardinality() <= ARRAY_MAX_SIZE ? bitmap.toArray() : bitmap;
+		}
+
+		/**
+		 * Sets the bits of every value of this container in the passed words.
+		 */
+		abstract void orInto(long[] words);
+
+		BitmapContainer toBitmap() {
+			long[] words = new long[BITMAP_WORDS];
+			orInto(words);
+			return new BitmapContainer(words, cardinality());
+		}
+	}
+
+	/**
+	 * Sparse container holding its values as a sorted array.
+	 */
+	private static class ArrayContainer extends Container {
+		private char[] values;
+		private int size;
+
+		ArrayContainer() {
+			this(new char[4], 0);
+		}
+
+		ArrayContainer(char[] values, int size) {
+			this.values = values;
+			this.size = size;
+		}
+
+		@Override
+		boolean contains(char value) {
+			return Arrays.binarySearch(values, 0, size, value) >= 0;
+		}
+
+		@Override
+		Container add(char value) {
+			int index = Arrays.binarySearch(values, 0, size, value);
+			if (index >= 0)
+				return this;
+
+			if (size == ARRAY_MAX_SIZE)
+				return toBitmap().add(value);
+
+			index = -index - 1;
+			if (size == values.length)
+				values = Arrays.copyOf(values, Math.min(ARRAY_MAX_SIZE, size * 2));
+			System.arraycopy(values, index, values, index + 1, size - index);
+			values[index] = value;
+			size++;
+			return this;
+		}
+
+		@Override
+		Container remove(char value) {
+			int index = Arrays.binarySearch(values, 0, size, value);
+			if (index >= 0) {
+				System.arraycopy(values, index + 1, values, index, size - index - 1);
+				size--;
+			}
+			return this;
+		}
+
+		@Override
+		int cardinality() {
+			return size;
+		}
+
+		@Override
+		boolean isBitmap() {
+			return false;
+		}
+
+		@Override
+		Container copy() {
+			return new ArrayContainer(Arrays.copyOf(values, Math.max(size, 4)), size);
+		}
+
+		@Override
+		void orInto(long[] words) {
+			for (int i = 0; i < size; i++)
+				words[values[i] >>> 6] |= 1L << values[i];
+		}
+
+		@Override
+		void write(DataOutputStream out) throws IOException {
+			for (int i = 0; i < size; i++)
+				out.writeChar(values[i]);
+		}
+	}
+
+	/**
+	 * Dense container holding its values as one bit each.
+	 */
+	private static class BitmapContainer extends Container {
+		private final long[] words;
+		private int cardinality;
+
+		BitmapContainer(long[] words, int cardinality) {
+			this.words = words;
+			this.cardinality = cardinality;
+		}
+
+		@Override
+		boolean contains(char value) {
+			return (words[value >>> 6] & (1L << value)) != 0;
+		}
+
+		@Override
+		Container add(char value) {
+			long word = words[value >>> 6];
+			long updated = word | (1L << value);
+			if (updated != word) {
+				words[value >>> 6] = updated;
+				cardinality++;
+			}
+			return this;
+		}
+
+		@Override
+		Container remove(char value) {
+			long word = words[value >>> 6];
+			long updated = word & ~(1L << value);
+			if (updated != word) {
+				words[value >>> 6] = updated;
+				cardinality--;
+			}
+			return cardinality <= ARRAY_MAX_SIZE / 2 ? toArray() : this;
+		}
+
+		@Override
+		int cardinality() {
+			return cardinality;
+		}
+
+		@Override
+		boolean isBitmap() {
+			return true;
+		}
+
+		@Override
+		Container copy() {
+			return new BitmapContainer(words.clone(), cardinality);
+		}
+
+		@Override
+		void orInto(long[] words) {
+			for (int i = 0; i < BITMAP_WORDS; i++)
+				words[i] |= this.words[i];
+		}
+
+		@Override
+		BitmapContainer toBitmap() {
+			return (BitmapContainer) copy();
+		}
+
+		@Override
+		void write(DataOutputStream out) throws IOException {
+			for (long word : words)
+				out.writeLong(word);
+		}
+
+		void recount() {
+			int cardinality = 0;
+			for (long word : words)
+				cardinality += Long.bitCount(word);
+			this.cardinality = cardinality;
+		}
+
+		ArrayContainer toArray() {
+			char[] values = new char[Math.max(cardinality, 4)];
+			int size = 0;
+			for (int i = 0; i < BITMAP_WORDS; i++) {
+				long word = words[i];
+				while (word != 0) {
+					values[size++] = (char) (i * 64 + Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			return new ArrayContainer(values, size);
+		}
+	}
+
+	/**
+	 * Read-only container backed by a mapped file, copied to the heap once modified.
+	 */
+	private static class MappedContainer extends Container {
+		private final ByteBuffer buffer;
+		private final byte type;
+		private final int offset;
+		private final int cardinality;
+
+		MappedContainer(ByteBuffer buffer, byte type, int offset, int cardinality) {
+			this.buffer = buffer;
+			this.type = type;
+			this.offset = offset;
+			this.cardinality = cardinality;
+		}
+
+		@Override
+		boolean contains(char value) {
+			if (type == TYPE_BITMAP)
+				return (buffer.getLong(offset + (value >>> 6) * 8) & (1L << value)) != 0;
+
+			// Binary search straight over the mapping
+			int low = 0;
+			int high = cardinality - 1;
+			while (low <= high) {
+				int middle = (low + high) >>> 1;
+				char current = buffer.getChar(offset + middle * 2);
+				if (current < value)
+					low = middle + 1;
+				else if (current > value)
+					high = middle - 1;
+				else
+					return true;
+			}
+			return false;
+		}
+
+		@Override
+		Container add(char value) {
+			return contains(value) ? this : copy().add(value);
+		}
+
+		@Override
+		Container remove(char value) {
+			return contains(value) ? copy().remove(value) : this;
+		}
+
+		@Override
+		int cardinality() {
+			return cardinality;
+		}
+
+		@Override
+		boolean isBitmap() {
+			return type == TYPE_BITMAP;
+		}
+
+		@Override
+		Container copy() {
+			if (type == TYPE_BITMAP) {
+				long[] words = new long[BITMAP_WORDS];
+				for (int i = 0; i < BITMAP_WORDS; i++)
+					words[i] = buffer.getLong(offset + i * 8);
+				return new BitmapContainer(words, cardinality);
+			}
+
+			char[] values = new char[Math.max(cardinality, 4)];
+			for (int i = 0; i < cardinality; i++)
+				values[i] = buffer.getChar(offset + i * 2);
+			return new ArrayContainer(values, cardinality);
+		}
+
+		@Override
+		void orInto(long[] words) {
+			if (type == TYPE_BITMAP) {
+				for (int i = 0; i < BITMAP_WORDS; i++)
+					words[i] |= buffer.getLong(offset + i * 8);
+			} else {
+				for (int i = 0; i < cardinality; i++) {
+					char value = buffer.getChar(offset + i * 2);
+					words[value >>> 6] |= 1L << value;
+				}
+			}
+		}
+
+		@Override
+		void write(DataOutputStream out) throws IOException {
+			copy().write(out);
+		}
+	}
+}
@@ -0,0 +1,290 @@
+package com.pkmmte.pkrss;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only binary journal of article read state changes, on top of a {@link ReadBitmap} snapshot.
+ * <p>
+ * Each change costs a fixed size record appended to the end of the file, so marking an
+ * article read no longer rewrites the whole read list. Changes made in quick succession are
+ * written and synced together as a single group commit. Once the journal holds enough records,
+ * the current state is written as a new snapshot and the journal starts over, which keeps
+ * loading down to mapping the snapshot and replaying a few records.
+ */
+class ReadJournal {
+	private static final int MAGIC = 0x504b524a;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 8;
+	private static final int RECORD_SIZE = 5;
+
+	// Record operations
+	private static final byte OP_UNREAD = 0;
+	private static final byte OP_READ = 1;
+	// Only written by older versions, bulk changes are snapshotted instead
+	private static final byte OP_CLEAR = 2;
+
+	// Changes are held back this long so bursts are committed together
+	private static final long COMMIT_DELAY = 100;
+
+	// Snapshot once the journal holds this many records
+	private static final int COMPACT_THRESHOLD = 1024;
+
+	private final File file;
+	private final File snapshotFile;
+	// Snapshot being written & journal set aside during a compaction
+	private final File tempFile;
+	private final File oldFile;
+	private final PkRSS singleton;
+	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new BackgroundThreadFactory("PkRSS-Journal"));
+
+	// Pending changes, guarded by this
+	private int[] pendingIds = new int[64];
+	private byte[] pendingOps = new byte[64];
+	private int pendingCount;
+	private boolean commitScheduled;
+
+	// Records in the journal, reset early once a snapshot is queued
+	private volatile int records;
+
+	ReadJournal(File file, File snapshotFile, PkRSS singleton) {
+		this.file = file;
+		this.snapshotFile = snapshotFile;
+		this.tempFile = new File(snapshotFile.getPath() + ".tmp");
+		this.oldFile = new File(file.getPath() + ".old");
+		this.singleton = singleton;
+	}
+
+	/**
+	 * Maps the snapshot and replays the journal on top of it. This is cheap enough to run
+	 * synchronously as the journal is snapshotted every {@value #COMPACT_THRESHOLD} records.
+	 * @return IDs of every article marked as read.
+	 */
+	ReadBitmap load() {
+		recover();
+
+		ReadBitmap readList = null;
+		if (snapshotFile.isFile()) {
+			try {
+				readList = ReadBitmap.map(snapshotFile);
+			} catch (IOException e) {
+				singleton.log("Failed to map read snapshot: " + e.getMessage(), Log.ERROR);
+			}
+		}
+		if (readList == null)
+			readList = new ReadBitmap();
+		if (!file.isFile())
+			return readList;
+
+		int count = 0;
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+					singleton.log("Unsupported read journal, starting over", Log.WARN);
+					return readList;
+				}
+
+				while (true) {
+					int id = in.readInt();
+					byte op = in.readByte();
+					count++;
+					if (op == OP_CLEAR)
+						readList.clear();
+					else if (op == OP_READ)
+						readList.add(id);
+					else
+						readList.remove(id);
+				}
+			} finally {
+				in.close();
+			}
+		} catch (EOFException e) {
+			// End of the journal, possibly cut short by a crash mid record
+		} catch (IOException e) {
+			singleton.log("Failed to read journal: " + e.getMessage(), Log.ERROR);
+		}
+		records = count;
+		singleton.log("Replayed " + count + " read state changes");
+		return readList;
+	}
+
+	/**
+	 * Queues a read state change for the next group commit.
+	 */
+	void append(int id, boolean read) {
+		enqueue(id, read ? OP_READ : OP_UNREAD);
+	}
+
+	/**
+	 * Writes the passed state as the new snapshot and empties the journal. Used for bulk
+	 * changes such as marking everything read, which would otherwise take a record per article.
+	 * @param readList Current read state, including every change queued so far, which is
+	 * why those are dropped rather than committed.
+	 */
+	void snapshot(ReadBitmap readList) {
+		snapshot(readList, null);
+	}
+
+	/**
+	 * Writes the passed state as the new snapshot and empties the journal.
+	 * @param readList Current read state, including every change queued so far.
+	 * @param onWritten Run on the journal thread once the snapshot is safely on disk,
+	 * not at all if writing it failed. May be null.
+	 */
+	void snapshot(ReadBitmap readList, final Runnable onWritten) {
+		final ReadBitmap snapshot;
+		synchronized (this) {
+			snapshot = readList.copy();
+			pendingCount = 0;
+		}
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (compact(snapshot) && onWritten != null)
+					onWritten.run();
+			}
+		});
+	}
+
+	/**
+	 * Snapshots the passed state if the journal grew past {@value #COMPACT_THRESHOLD} records.
+	 * @param readList Current read state, including every change queued so far.
+	 */
+	void compactIfNeeded(ReadBitmap readList) {
+		if (records < COMPACT_THRESHOLD)
+			return;
+
+		records = 0;
+		snapshot(readList);
+	}
+
+	private synchronized void enqueue(int id, byte op) {
+		if (pendingCount == pendingIds.length) {
+			int[] ids = new int[pendingCount * 2];
+			byte[] ops = new byte[pendingCount * 2];
+			System.arraycopy(pendingIds, 0, ids, 0, pendingCount);
+			System.arraycopy(pendingOps, 0, ops, 0, pendingCount);
+			pendingIds = ids;
+			pendingOps = ops;
+		}
+		pendingIds[pendingCount] = id;
+		pendingOps[pendingCount] = op;
+		pendingCount++;
+
+		if (!commitScheduled) {
+			commitScheduled = true;
+			executor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					commit();
+				}
+			}, COMMIT_DELAY, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Appends & syncs every queued change at once.
+	 */
+	private void commit() {
+		int[] ids;
+		byte[] ops;
+		int count;
+		synchronized (this) {
+			ids = pendingIds;
+			ops = pendingOps;
+			count = pendingCount;
+			pendingIds = new int[Math.max(64, count)];
+			pendingOps = new byte[Math.max(64, count)];
+			pendingCount = 0;
+			commitScheduled = false;
+		}
+		if (count == 0)
+			return;
+
+		try {
+			boolean header = !file.isFile() || file.length() < HEADER_SIZE;
+			FileOutputStream outputStream = new FileOutputStream(file, !header);
+			try {
+				// Drop any record torn by a crash so new ones stay aligned
+				long length = outputStream.getChannel().size();
+				if (!header && (length - HEADER_SIZE) % RECORD_SIZE != 0)
+					outputStream.getChannel().truncate(length - (length - HEADER_SIZE) % RECORD_SIZE);
+
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream, (header ? HEADER_SIZE : 0) + count * RECORD_SIZE));
+				if (header) {
+					out.writeInt(MAGIC);
+					out.writeInt(VERSION);
+				}
+				for (int i = 0; i < count; i++) {
+					out.writeInt(ids[i]);
+					out.writeByte(ops[i]);
+				}
+				out.flush();
+				outputStream.getFD().sync();
+			} finally {
+				outputStream.close();
+			}
+			records += count;
+		} catch (IOException e) {
+			singleton.log("Failed to write read journal: " + e.getMessage(), Log.ERROR);
+		}
+	}
+
+	/**
+	 * Replaces the snapshot with the passed state and empties the journal. The journal is set
+	 * aside before the snapshot is swapped in and deleted after, so its records never replay on
+	 * top of a snapshot they predate, and {@link #recover()} can tell how far a crash got.
+	 * @return {@code true} if the snapshot was written, {@code false} if otherwise.
+	 */
+	private boolean compact(ReadBitmap readList) {
+		try {
+			readList.write(tempFile);
+			if (file.exists() && !file.renameTo(oldFile))
+				throw new IOException("Could not set aside " + file);
+
+			// Readers of the old snapshot keep their mapping of it
+			if (!tempFile.renameTo(snapshotFile)) {
+				oldFile.renameTo(file);
+				throw new IOException("Could not replace " + snapshotFile);
+			}
+			oldFile.delete();
+
+			singleton.log("Snapshotted " + readList.cardinality() + " read articles");
+			records = 0;
+			return true;
+		} catch (IOException e) {
+			// Left for recovery if the journal couldn't be put back
+			if (!oldFile.exists())
+				tempFile.delete();
+			singleton.log("Failed to snapshot read state: " + e.getMessage(), Log.ERROR);
+			return false;
+		}
+	}
+
+	/**
+	 * Completes or rolls back a compaction cut short by a crash. A journal set aside along
+	 * with a complete new snapshot means the crash hit before the swap, so the swap is finished.
+	 * A journal set aside alone was already replaced by the snapshot it led to.
+	 */
+	private void recover() {
+		if (oldFile.exists()) {
+			if (tempFile.exists() && !tempFile.renameTo(snapshotFile) && !oldFile.renameTo(file))
+				singleton.log("Failed to recover read journal", Log.ERROR);
+			oldFile.delete();
+		}
+		tempFile.delete();
+	}
+}
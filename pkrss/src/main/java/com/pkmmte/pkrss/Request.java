@@ -4,6 +4,9 @@ import com.pkmmte.pkrss.downloader.Downloader;
 import com.pkmmte.pkrss.parser.Parser;
 
 import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -17,7 +20,17 @@ public final class Request {
 	public final String search;
 	public final boolean individual;
 	public final boolean skipCache;
+	public final Integer maxAge;
+	public final int maxStale;
+	public final int staleWhileRevalidate;
+	public final boolean onlyIfCached;
+	public final boolean offlineFirst;
+	public final boolean noStore;
+	public final boolean background;
+	public final boolean deltaFeed;
+	public final Map<String, String> headers;
 	public final int page;
+	public final int prefetchPages;
 	public final Boolean safe;
 	public final CallbackHandler handler;
 	public final Downloader downloader;
@@ -31,7 +44,17 @@ public final class Request {
 		this.search = builder.search;
 		this.individual = builder.individual;
 		this.skipCache = builder.skipCache;
+		this.maxAge = builder.maxAge;
+		this.maxStale = builder.maxStale;
+		this.staleWhileRevalidate = builder.staleWhileRevalidate;
+		this.onlyIfCached = builder.onlyIfCached;
+		this.offlineFirst = builder.offlineFirst;
+		this.noStore = builder.noStore;
+		this.background = builder.background;
+		this.deltaFeed = builder.deltaFeed;
+		this.headers = Collections.unmodifiableMap(new LinkedHashMap<String, String>(builder.headers));
 		this.page = builder.page;
+		this.prefetchPages = builder.prefetchPages;
 		this.safe = builder.safe;
 		this.handler = builder.handler;
 		this.downloader = builder.downloader;
@@ -45,7 +68,17 @@ public final class Request {
 		private String search;
 		private boolean individual;
 		private boolean skipCache;
+		private Integer maxAge;
+		private int maxStale;
+		private int staleWhileRevalidate;
+		private boolean onlyIfCached;
+		private boolean offlineFirst;
+		private boolean noStore;
+		private boolean background;
+		private boolean deltaFeed;
+		private Map<String, String> headers;
 		private int page;
+		private int prefetchPages;
 		private Boolean safe;
 		private CallbackHandler handler;
 		private Downloader downloader;
@@ -58,7 +91,17 @@ public final class Request {
 			this.search = null;
 			this.individual = false;
 			this.skipCache = false;
+			this.maxAge = null;
+			this.maxStale = -1;
+			this.staleWhileRevalidate = -1;
+			this.onlyIfCached = false;
+			this.offlineFirst = false;
+			this.noStore = false;
+			this.background = false;
+			this.deltaFeed = false;
+			this.headers = new LinkedHashMap<String, String>();
 			this.page = 1;
+			this.prefetchPages = 0;
 			this.safe = null;
 			this.handler = null;
 			this.downloader = null;
@@ -66,6 +109,30 @@ public final class Request {
 			this.callback = null;
 		}
 
+		public Builder(Request request) {
+			this.tag = request.tag;
+			this.url = request.url;
+			this.search = request.search;
+			this.individual = request.individual;
+			this.skipCache = request.skipCache;
+			this.maxAge = request.maxAge;
+			this.maxStale = request.maxStale;
+			this.staleWhileRevalidate = request.staleWhileRevalidate;
+			this.onlyIfCached = request.onlyIfCached;
+			this.offlineFirst = request.offlineFirst;
+			this.noStore = request.noStore;
+			this.background = request.background;
+			this.deltaFeed = request.deltaFeed;
+			this.headers = new LinkedHashMap<String, String>(request.headers);
+			this.page = request.page;
+			this.prefetchPages = request.prefetchPages;
+			this.safe = request.safe;
+			this.handler = request.handler;
+			this.downloader = request.downloader;
+			this.parser = request.parser;
+			this.callback = request.callback;
+		}
+
 		public Builder tag(String tag) {
 			this.tag = tag;
 			return this;
@@ -91,11 +158,64 @@ public final class Request {
 			return this;
 		}
 
+		public Builder maxAge(Integer maxAge) {
+			this.maxAge = maxAge;
+			return this;
+		}
+
+		public Builder maxStale(int maxStale) {
+			this.maxStale = maxStale;
+			return this;
+		}
+
+		public Builder staleWhileRevalidate(int staleWhileRevalidate) {
+			this.staleWhileRevalidate = staleWhileRevalidate;
+			return this;
+		}
+
+		public Builder onlyIfCached(boolean onlyIfCached) {
+			this.onlyIfCached = onlyIfCached;
+			return this;
+		}
+
+		public Builder offlineFirst(boolean offlineFirst) {
+			this.offlineFirst = offlineFirst;
+			return this;
+		}
+
+		public Builder noStore(boolean noStore) {
+			this.noStore = noStore;
+			return this;
+		}
+
+		public Builder background(boolean background) {
+			this.background = background;
+			return this;
+		}
+
+		public Builder deltaFeed(boolean deltaFeed) {
+			this.deltaFeed = deltaFeed;
+			return this;
+		}
+
+		public Builder header(String name, String value) {
+			if (value == null)
+				this.headers.remove(name);
+			else
+				this.headers.put(name, value);
+			return this;
+		}
+
 		public Builder page(int page) {
 			this.page = page;
 			return this;
 		}
 
+		public Builder prefetchPages(int prefetchPages) {
+			this.prefetchPages = prefetchPages;
+			return this;
+		}
+
 		public Builder safe(boolean safe) {
 			this.safe = safe;
 			return this;
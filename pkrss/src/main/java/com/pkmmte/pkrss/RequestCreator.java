@@ -10,6 +10,10 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Fluent API for building an RSS load request.
@@ -17,6 +21,16 @@ import java.util.Map;
 public class RequestCreator {
 	private static final List<String> activeRequests = Collections.synchronizedList(new ArrayList<String>());
 
+	// Timer handing delayed & throttled requests back to the worker thread
+	private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "PkRSS-Scheduler");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
 	private final PkRSS singleton;
 	private final Request.Builder data;
 
@@ -87,6 +101,70 @@ public class RequestCreator {
 		return this;
 	}
 
+	/**
+	 * Overrides the {@link Downloader}'s default freshness for this request.
+	 * Cached responses older than this are revalidated over the network.
+	 * @param seconds Maximum age in seconds of a cached response.
+	 */
+	public RequestCreator maxAge(int seconds) {
+		this.data.maxAge(seconds);
+		return this;
+	}
+
+	/**
+	 * Accepts cached responses which have been expired for up to the
+	 * specified amount of time.
+	 * @param seconds Time in seconds a cached response may be stale.
+	 */
+	public RequestCreator maxStale(int seconds) {
+		this.data.maxStale(seconds);
+		return this;
+	}
+
+	/**
+	 * Serves a stale cached response if it expired no longer than the specified
+	 * time ago and then revalidates it in the background. The callback is notified
+	 * a second time only if the revalidated feed changed.
+	 * @param seconds Time in seconds a cached response may be stale.
+	 */
+	public RequestCreator staleWhileRevalidate(int seconds) {
+		this.data.staleWhileRevalidate(seconds);
+		return this;
+	}
+
+	/**
+	 * Only loads this request from the cache without ever touching the network.
+	 * Useful for offline modes. The request fails if no cached response exists.
+	 */
+	public RequestCreator onlyIfCached() {
+		this.data.onlyIfCached(true);
+		return this;
+	}
+
+	/**
+	 * Immediately delivers the last known articles for this request, either from
+	 * memory or from the persisted cache, and then revalidates them in the background.
+	 * The callback is notified a second time only if the feed actually changed.
+	 * <p>
+	 * Falls back to a regular load if nothing is available offline.
+	 */
+	public RequestCreator offlineFirst() {
+		this.data.offlineFirst(true);
+		return this;
+	}
+
+	/**
+	 * Asks the server for only the items added since the feed already loaded, using
+	 * RFC 3229 delta encoding ({@code A-IM: feed}), and merges them into it.
+	 * Servers without support simply send the whole feed as usual.
+	 * <p>
+	 * Delta requests are sent straight to the server rather than answered from the HTTP cache.
+	 */
+	public RequestCreator deltaFeed() {
+		this.data.deltaFeed(true);
+		return this;
+	}
+
 	/**
 	 * Loads a specific page of the RSS feed.
 	 * @param page Page to load.
@@ -117,6 +195,16 @@ public class RequestCreator {
 		return this;
 	}
 
+	/**
+	 * Once this page loads, fetches and parses the following pages in the background
+	 * so later {@link #nextPage()} requests are served instantly.
+	 * @param pages Number of pages to prefetch.
+	 */
+	public RequestCreator prefetchPages(int pages) {
+		this.data.prefetchPages(pages);
+		return this;
+	}
+
 	/**
 	 * Choose whether to handle callbacks safely.
 	 * Setting to true will automatically catch any exceptions thrown.
@@ -221,42 +309,53 @@ public class RequestCreator {
 			activeRequests.add(request.tag);
 		}
 
-		new AsyncTask<Void, Void, Void>() {
+		enqueue(request, handler, safe, delay);
+	}
+
+	/**
+	 * Queues the specified request for execution on the worker thread after the specified delay.
+	 * <p>
+	 * Requests for hosts throttled by the {@link Downloader}'s rate limiter are put back
+	 * on the timer rather than blocking the worker, so other requests keep running.
+	 */
+	private void enqueue(final Request request, final CallbackHandler handler, final boolean safe, long delay) {
+		final Runnable task = new Runnable() {
 			@Override
-			protected Void doInBackground(Void... params) {
-				try {
-					// Delay thread if specified
-					if (delay > 0) {
-						singleton.log("Delaying " + request.tag + " request for " + delay + "ms");
-						Thread.sleep(delay);
-					}
+			public void run() {
+				// Wait for throttled hosts without holding on to this worker
+				long throttle = singleton.getThrottleDelay(request);
+				if (throttle > 0) {
+					singleton.log(request.tag + " host is throttled, retrying in " + throttle + "ms");
+					enqueue(request, handler, safe, throttle);
+					return;
+				}
 
-					// Execute request
-					try {
-						singleton.load(request);
-					} catch (IOException e) {
-						singleton.log("Error executing request " + request.tag + " asynchronously! " + e.getMessage(), Log.ERROR);
-						handler.onLoadFailed(safe, request.callback.get());
-					}
-				} catch (InterruptedException e) {
-					singleton.log(request.tag + " thread interrupted!");
+				// Execute request
+				try {
+					singleton.load(request);
+				} catch (IOException e) {
+					singleton.log("Error executing request " + request.tag + " asynchronously! " + e.getMessage(), Log.ERROR);
+					handler.onLoadFailed(safe, request.callback.get());
 				} finally {
 					synchronized (activeRequests) {
 						activeRequests.remove(request.tag);
 					}
 				}
-				return null;
 			}
+		};
 
-			@Override
-			protected void onCancelled(Void aVoid) {
-				super.onCancelled(aVoid);
+		if (delay <= 0) {
+			AsyncTask.SERIAL_EXECUTOR.execute(task);
+			return;
+		}
 
-				// Double check to make sure this request is removed
-				synchronized (activeRequests) {
-					activeRequests.remove(request.tag);
-				}
+		// Delay thread if specified
+		singleton.log("Delaying " + request.tag + " request for " + delay + "ms");
+		scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				AsyncTask.SERIAL_EXECUTOR.execute(task);
 			}
-		}.executeOnExecutor(AsyncTask.SERIAL_EXECUTOR);
+		}, delay, TimeUnit.MILLISECONDS);
 	}
 }
\ No newline at end of file
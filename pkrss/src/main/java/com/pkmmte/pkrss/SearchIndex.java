@@ -0,0 +1,286 @@
+package com.pkmmte.pkrss;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * In-memory inverted index over the titles, descriptions, authors & tags of articles,
+ * allowing instant offline search across every loaded feed.
+ * <p>
+ * Every term maps to the articles containing it along with a weight favoring matches in
+ * titles over those in descriptions. Queries match articles containing every query term,
+ * the last one as a prefix so results update while typing, and rank them by TF-IDF.
+ * Articles are re-indexed whenever added again under the same ID.
+ */
+class SearchIndex {
+	// Relative weight of a term occurring in each field
+	private static final float WEIGHT_TITLE = 3;
+	private static final float WEIGHT_TAG = 2;
+	private static final float WEIGHT_AUTHOR = 2;
+	private static final float WEIGHT_DESCRIPTION = 1;
+
+	// Shorter terms match too much to be worth indexing
+	private static final int MIN_TERM_LENGTH = 2;
+
+	// Sorted so query prefixes can be expanded into every term they start
+	private final TreeMap<String, Posting> postings = new TreeMap<String, Posting>();
+	private final Map<Integer, Document> documents = new HashMap<Integer, Document>();
+
+	/**
+	 * Indexes the passed articles, replacing any indexed before under the same ID.
+	 */
+	synchronized void add(Collection<Article> articles) {
+		for (Article article : articles)
+			add(article);
+	}
+
+	/**
+	 * Indexes those of the passed articles which aren't indexed yet, e.g. partial copies
+	 * which shouldn't replace complete ones loaded meanwhile.
+	 */
+	synchronized void addMissing(Collection<Article> articles) {
+		for (Article article : articles) {
+			if (!documents.containsKey(article.getId()))
+				add(article, true);
+		}
+	}
+
+	/**
+	 * Indexes the passed article, replacing any indexed before under the same ID.
+	 */
+	synchronized void add(Article article) {
+		add(article, false);
+	}
+
+	/**
+	 * @return {@code true} if the article with the passed ID was indexed from a partial copy,
+	 * which search results hand out as is.
+	 */
+	synchronized boolean isPartial(int id) {
+		Document document = documents.get(id);
+		return document != null && document.partial;
+	}
+
+	private void add(Article article, boolean partial) {
+		remove(article.getId());
+
+		Map<String, Float> weights = new HashMap<String, Float>();
+		tokenize(article.getTitle(), WEIGHT_TITLE, weights);
+		tokenize(article.getAuthor(), WEIGHT_AUTHOR, weights);
+		tokenize(article.getDescription(), WEIGHT_DESCRIPTION, weights);
+		if (article.getTags() != null) {
+			for (String tag : article.getTags())
+				tokenize(tag, WEIGHT_TAG, weights);
+		}
+
+		String[] terms = weights.keySet().toArray(new String[weights.size()]);
+		for (String term : terms) {
+			Posting posting = postings.get(term);
+			if (posting == null) {
+				posting = new Posting();
+				postings.put(term, posting);
+			}
+			posting.add(article.getId(), weights.get(term));
+		}
+		documents.put(article.getId(), new Document(article, terms, partial));
+	}
+
+	/**
+	 * Removes the article with the passed ID from the index.
+	 */
+	synchronized void remove(int id) {
+		Document document = documents.remove(id);
+		if (document == null)
+			return;
+
+		for (String term : document.terms) {
+			Posting posting = postings.get(term);
+			posting.remove(id);
+			if (posting.size == 0)
+				postings.remove(term);
+		}
+	}
+
+	/**
+	 * Removes every article.
+	 */
+	synchronized void clear() {
+		postings.clear();
+		documents.clear();
+	}
+
+	/**
+	 * @param query Words to search for. The last one also matches longer words it starts.
+	 * @param limit Maximum number of results.
+	 * @return Articles matching every word of the query, best matches first,
+	 * ties broken by newest first. Empty if the query holds no searchable words.
+	 */
+	synchronized List<Article> search(String query, int limit) {
+		List<String> terms = new ArrayList<String>();
+		tokenize(query, terms);
+		if (terms.isEmpty() || limit <= 0)
+			return new ArrayList<Article>(0);
+
+		Map<Integer, Hit> hits = new HashMap<Integer, Hit>();
+		for (int i = 0; i < terms.size(); i++) {
+			String term = terms.get(i);
+			Collection<Posting> matches;
+			if (i == terms.size() - 1) {
+				SortedMap<String, Posting> prefixed = postings.subMap(term, term + Character.MAX_VALUE);
+				matches = prefixed.values();
+			} else {
+				Posting posting = postings.get(term);
+				matches = posting == null ? Collections.<Posting>emptyList() : Collections.singletonList(posting);
+			}
+
+			for (Posting posting : matches) {
+				float idf = (float) Math.log(1 + (double) documents.size() / posting.size);
+				for (int j = 0; j < posting.size; j++) {
+					Hit hit = hits.get(posting.ids[j]);
+					if (i == 0 && hit == null) {
+						hit = new Hit(documents.get(posting.ids[j]).article);
+						hits.put(posting.ids[j], hit);
+					}
+
+					// Only articles which matched every term so far stay candidates
+					if (hit == null || hit.terms < i)
+						continue;
+					hit.terms = i + 1;
+					hit.score += posting.weights[j] * idf;
+				}
+			}
+		}
+
+		List<Hit> matched = new ArrayList<Hit>(hits.size());
+		for (Hit hit : hits.values()) {
+			if (hit.terms == terms.size())
+				matched.add(hit);
+		}
+		Collections.sort(matched, new Comparator<Hit>() {
+			@Override
+			public int compare(Hit lhs, Hit rhs) {
+				if (lhs.score != rhs.score)
+					return lhs.score > rhs.score ? -1 : 1;
+				long l = lhs.article.getDate();
+				long r = rhs.article.getDate();
+				return l > r ? -1 : l < r ? 1 : 0;
+			}
+		});
+
+		List<Article> results = new ArrayList<Article>(Math.min(limit, matched.size()));
+		for (int i = 0; i < matched.size() && i < limit; i++)
+			results.add(matched.get(i).article);
+		return results;
+	}
+
+	/**
+	 * Adds the weight of every term of the passed text to the passed map.
+	 */
+	private static void tokenize(String text, float weight, Map<String, Float> weights) {
+		if (text == null)
+			return;
+
+		List<String> terms = new ArrayList<String>();
+		tokenize(text, terms);
+		for (String term : terms) {
+			Float current = weights.get(term);
+			weights.put(term, current == null ? weight : current + weight);
+		}
+	}
+
+	/**
+	 * Splits the passed text into lower case terms of letters & digits, skipping HTML tags.
+	 */
+	private static void tokenize(String text, List<String> terms) {
+		StringBuilder term = new StringBuilder();
+		boolean inTag = false;
+		for (int i = 0, length = text.length(); i <= length; i++) {
+			char c = i < length ? text.charAt(i) : ' ';
+			if (inTag) {
+				inTag = c != '>';
+				continue;
+			}
+
+			if (Character.isLetterOrDigit(c)) {
+				term.append(c);
+				continue;
+			}
+
+			if (term.length() >= MIN_TERM_LENGTH)
+				terms.add(term.toString().toLowerCase(Locale.US));
+			term.setLength(0);
+			inTag = c == '<';
+		}
+	}
+
+	/**
+	 * IDs of the articles containing a term along with the term's weight in each.
+	 */
+	private static class Posting {
+		int[] ids = new int[4];
+		float[] weights = new float[4];
+		int size;
+
+		void add(int id, float weight) {
+			if (size == ids.length) {
+				int[] newIds = new int[size * 2];
+				float[] newWeights = new float[size * 2];
+				System.arraycopy(ids, 0, newIds, 0, size);
+				System.arraycopy(weights, 0, newWeights, 0, size);
+				ids = newIds;
+				weights = newWeights;
+			}
+			ids[size] = id;
+			weights[size] = weight;
+			size++;
+		}
+
+		void remove(int id) {
+			for (int i = 0; i < size; i++) {
+				if (ids[i] == id) {
+					// Order doesn't matter, move the last entry into the gap
+					size--;
+					ids[i] = ids[size];
+					weights[i] = weights[size];
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * An indexed article along with its terms, so it can be removed again.
+	 */
+	private static class Document {
+		final Article article;
+		final String[] terms;
+		final boolean partial;
+
+		Document(Article article, String[] terms, boolean partial) {
+			this.article = article;
+			this.terms = terms;
+			this.partial = partial;
+		}
+	}
+
+	/**
+	 * An article matching a query so far.
+	 */
+	private static class Hit {
+		final Article article;
+		int terms;
+		float score;
+
+		Hit(Article article) {
+			this.article = article;
+		}
+	}
+}
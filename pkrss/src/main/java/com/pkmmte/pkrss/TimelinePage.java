@@ -0,0 +1,41 @@
+package com.pkmmte.pkrss;
+
+import java.util.List;
+
+/**
+ * One page of a merged multi-feed timeline, as returned by
+ * {@link PkRSS#timeline(java.util.Collection, long, int, String)}.
+ * <p>
+ * Pass {@link #getNextCursor()} to fetch the page following this one. Cursors point at the
+ * last article of a page rather than an offset, so articles inserted meanwhile don't shift pages.
+ */
+public class TimelinePage {
+	private final List<Article> articles;
+	private final String nextCursor;
+
+	TimelinePage(List<Article> articles, String nextCursor) {
+		this.articles = articles;
+		this.nextCursor = nextCursor;
+	}
+
+	/**
+	 * @return Articles of this page, newest first.
+	 */
+	public List<Article> getArticles() {
+		return articles;
+	}
+
+	/**
+	 * @return Opaque cursor to fetch the following page with, or null if this is the last page.
+	 */
+	public String getNextCursor() {
+		return nextCursor;
+	}
+
+	/**
+	 * @return {@code true} if more articles follow this page.
+	 */
+	public boolean hasMore() {
+		return nextCursor != null;
+	}
+}
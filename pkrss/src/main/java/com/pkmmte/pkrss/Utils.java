@@ -6,6 +6,9 @@ import com.pkmmte.pkrss.downloader.DefaultDownloader;
 import com.pkmmte.pkrss.downloader.Downloader;
 import com.pkmmte.pkrss.downloader.OkHttpDownloader;
 import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 public class Utils {
 	private static final String TAG = "Utils";
@@ -27,6 +30,26 @@ public class Utils {
 		return dir.delete();
 	}
 
+	/**
+	 * Hashes the passed string into a name safe to use for files, e.g. those caching a URL.
+	 *
+	 * @param value String to hash.
+	 * @return Lower case hex MD5 digest of the string's UTF-8 bytes.
+	 */
+	public static String md5Hex(String value) {
+		try {
+			byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes("UTF-8"));
+			StringBuilder hex = new StringBuilder(digest.length * 2);
+			for (byte b : digest)
+				hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
 	/**
 	 * Creates a Downloader object depending on the dependencies present.
 	 *
@@ -34,6 +57,19 @@ public class Utils {
 	 * @return {@link OkHttpDownloader} if the OkHttp library is present, {@link DefaultDownloader} if not.
 	 */
 	public static Downloader createDefaultDownloader(Context context) {
+		return createDefaultDownloader(context, null, Downloader.DEFAULT_CACHE_SIZE, Downloader.DEFAULT_CACHE_MAX_AGE);
+	}
+
+	/**
+	 * Creates a Downloader object depending on the dependencies present.
+	 *
+	 * @param context Application context.
+	 * @param cacheDir Directory in which to store the HTTP cache. May be null to use the default.
+	 * @param cacheSize Maximum size of the HTTP cache in bytes.
+	 * @param cacheMaxAge Default time in seconds for which cached responses are fresh.
+	 * @return {@link OkHttpDownloader} if the OkHttp library is present, {@link DefaultDownloader} if not.
+	 */
+	public static Downloader createDefaultDownloader(Context context, File cacheDir, long cacheSize, int cacheMaxAge) {
 		boolean okUrlFactory = false;
 		try {
 			Class.forName("com.squareup.okhttp.OkUrlFactory");
@@ -56,6 +92,7 @@ public class Utils {
 		}
 
 		Log.d(TAG, "Downloader is " + (okHttpClient ? "OkHttpDownloader" : "DefaultDownloader"));
-		return okHttpClient ? new OkHttpDownloader(context) : new DefaultDownloader(context);
+		return okHttpClient ? new OkHttpDownloader(context, cacheDir, cacheSize, cacheMaxAge)
+		                    : new DefaultDownloader(context, cacheDir, cacheSize, cacheMaxAge);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,156 @@
+package com.pkmmte.pkrss.downloader;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Derives per-host timeouts from the latencies previously observed for each host.
+ * <p>
+ * Connect and time-to-first-byte latencies are kept in a rolling window per host.
+ * Once enough samples exist, a host's timeout is a multiple of its latency percentile,
+ * clamped to the configured bounds. Fast hosts therefore fail stuck requests quickly
+ * while slow hosts are given the time they normally need.
+ * <p>
+ * Timeouts aren't latencies, so they are counted apart from the window. Each consecutive
+ * timeout doubles a host's derived timeouts until a request to it succeeds again.
+ */
+public class AdaptiveTimeouts {
+	public static final long DEFAULT_MIN_CONNECT_TIMEOUT = 2000;
+	public static final long DEFAULT_MAX_CONNECT_TIMEOUT = 30000;
+	public static final long DEFAULT_MIN_READ_TIMEOUT = 5000;
+	public static final long DEFAULT_MAX_READ_TIMEOUT = 90000;
+
+	// Rolling window configuration
+	private static final int WINDOW_SIZE = 32;
+	private static final int MIN_SAMPLES = 8;
+	private static final double PERCENTILE = 0.95;
+	private static final int MULTIPLIER = 3;
+
+	// Consecutive timeouts beyond this no longer lengthen timeouts any further
+	private static final int MAX_BACKOFF = 3;
+
+	private final long minConnectTimeout;
+	private final long maxConnectTimeout;
+	private final long minReadTimeout;
+	private final long maxReadTimeout;
+	private final Map<String, HostLatency> hosts = new HashMap<String, HostLatency>();
+
+	public AdaptiveTimeouts() {
+		this(DEFAULT_MIN_CONNECT_TIMEOUT, DEFAULT_MAX_CONNECT_TIMEOUT, DEFAULT_MIN_READ_TIMEOUT, DEFAULT_MAX_READ_TIMEOUT);
+	}
+
+	/**
+	 * @param minConnectTimeout Lower bound in milliseconds for derived connect timeouts.
+	 * @param maxConnectTimeout Upper bound in milliseconds for derived connect timeouts.
+	 * @param minReadTimeout Lower bound in milliseconds for derived read timeouts.
+	 * @param maxReadTimeout Upper bound in milliseconds for derived read timeouts.
+	 */
+	public AdaptiveTimeouts(long minConnectTimeout, long maxConnectTimeout, long minReadTimeout, long maxReadTimeout) {
+		if (minConnectTimeout <= 0 || maxConnectTimeout < minConnectTimeout || minReadTimeout <= 0 || maxReadTimeout < minReadTimeout)
+			throw new IllegalArgumentException("Invalid timeout bounds!");
+
+		this.minConnectTimeout = minConnectTimeout;
+		this.maxConnectTimeout = maxConnectTimeout;
+		this.minReadTimeout = minReadTimeout;
+		this.maxReadTimeout = maxReadTimeout;
+	}
+
+	/**
+	 * Records the latencies of a request which went over the network.
+	 * @param host Host the request was made to.
+	 * @param connectLatency Time in milliseconds it took to connect.
+	 * @param firstByteLatency Time in milliseconds between sending the request and receiving the response headers.
+	 */
+	public synchronized void record(String host, long connectLatency, long firstByteLatency) {
+		HostLatency latency = getLatency(host);
+		latency.connect.add(connectLatency);
+		latency.firstByte.add(firstByteLatency);
+		latency.timeouts = 0;
+	}
+
+	/**
+	 * Records a request which timed out. Timeouts are counted rather than added to the
+	 * latency window, and lengthen the host's timeouts until it responds in time again.
+	 * @param host Host the request was made to.
+	 */
+	public synchronized void recordTimeout(String host) {
+		getLatency(host).timeouts++;
+	}
+
+	/**
+	 * @param host Host about to be requested.
+	 * @param fallback Timeout in milliseconds to use if not enough samples exist yet.
+	 * @return Connect timeout in milliseconds for the specified host.
+	 */
+	public synchronized long connectTimeout(String host, long fallback) {
+		HostLatency latency = hosts.get(host);
+		if (latency == null || latency.connect.size() < MIN_SAMPLES)
+			return fallback;
+
+		return clamp(latency.connect.percentile(PERCENTILE) * MULTIPLIER << backoff(latency), minConnectTimeout, maxConnectTimeout);
+	}
+
+	/**
+	 * @param host Host about to be requested.
+	 * @param fallback Timeout in milliseconds to use if not enough samples exist yet.
+	 * @return Read timeout in milliseconds for the specified host.
+	 */
+	public synchronized long readTimeout(String host, long fallback) {
+		HostLatency latency = hosts.get(host);
+		if (latency == null || latency.firstByte.size() < MIN_SAMPLES)
+			return fallback;
+
+		return clamp(latency.firstByte.percentile(PERCENTILE) * MULTIPLIER << backoff(latency), minReadTimeout, maxReadTimeout);
+	}
+
+	private HostLatency getLatency(String host) {
+		HostLatency latency = hosts.get(host);
+		if (latency == null) {
+			latency = new HostLatency();
+			hosts.put(host, latency);
+		}
+		return latency;
+	}
+
+	private static int backoff(HostLatency latency) {
+		return Math.min(latency.timeouts, MAX_BACKOFF);
+	}
+
+	private static long clamp(long value, long min, long max) {
+		return Math.max(min, Math.min(max, value));
+	}
+
+	private static class HostLatency {
+		private final Window connect = new Window();
+		private final Window firstByte = new Window();
+		private int timeouts;
+	}
+
+	/**
+	 * Fixed size ring buffer of the most recent samples.
+	 */
+	private static class Window {
+		private final long[] samples = new long[WINDOW_SIZE];
+		private final long[] sorted = new long[WINDOW_SIZE];
+		private int count;
+		private int next;
+
+		void add(long sample) {
+			samples[next] = Math.max(sample, 0);
+			next = (next + 1) % WINDOW_SIZE;
+			if (count < WINDOW_SIZE)
+				count++;
+		}
+
+		int size() {
+			return count;
+		}
+
+		long percentile(double percentile) {
+			System.arraycopy(samples, 0, sorted, 0, count);
+			Arrays.sort(sorted, 0, count);
+			return sorted[Math.min(count - 1, (int) Math.ceil(percentile * count) - 1)];
+		}
+	}
+}
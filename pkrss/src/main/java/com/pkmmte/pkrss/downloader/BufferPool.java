@@ -0,0 +1,137 @@
+package com.pkmmte.pkrss.downloader;
+
+import java.util.ArrayDeque;
+
+/**
+ * A shared pool of byte and char buffers in power-of-two size classes.
+ * <p>
+ * Used along the download to parse path so that steady-state polling reuses the same
+ * few buffers instead of allocating new ones for every load. Buffers larger than the
+ * largest size class are never pooled, and the pool retains at most a fixed amount of
+ * memory per buffer type.
+ */
+public class BufferPool {
+	// Size classes from 4 KB up to 1 MB
+	private static final int MIN_SHIFT = 12;
+	private static final int MAX_SHIFT = 20;
+	private static final int CLASSES = MAX_SHIFT - MIN_SHIFT + 1;
+
+	// Maximum amount of memory retained per buffer type
+	private static final long MAX_RETAINED_BYTES = 2 * 1024 * 1024;
+
+	private static final BufferPool DEFAULT = new BufferPool();
+
+	private final ArrayDeque<byte[]>[] byteBuffers = newDeques();
+	private final ArrayDeque<char[]>[] charBuffers = newDeques();
+	private long retainedBytes;
+	private long retainedChars;
+
+	/**
+	 * @return The pool shared by all PkRSS components.
+	 */
+	public static BufferPool getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * @param minSize Minimum size of the buffer.
+	 * @return A byte buffer at least as large as the specified size. Its contents are undefined.
+	 */
+	public byte[] acquireBytes(int minSize) {
+		int sizeClass = sizeClassFor(minSize);
+		if (sizeClass < 0)
+			return new byte[minSize];
+
+		synchronized (byteBuffers) {
+			byte[] buffer = byteBuffers[sizeClass].pollLast();
+			if (buffer != null) {
+				retainedBytes -= buffer.length;
+				return buffer;
+			}
+		}
+		return new byte[1 << (sizeClass + MIN_SHIFT)];
+	}
+
+	/**
+	 * Returns a buffer obtained from {@link #acquireBytes(int)} to this pool.
+	 * It must not be used by the caller afterwards.
+	 * @param buffer Buffer to release. May be null.
+	 */
+	public void release(byte[] buffer) {
+		int sizeClass = buffer == null ? -1 : sizeClassOf(buffer.length);
+		if (sizeClass < 0)
+			return;
+
+		synchronized (byteBuffers) {
+			if (retainedBytes + buffer.length <= MAX_RETAINED_BYTES) {
+				byteBuffers[sizeClass].addLast(buffer);
+				retainedBytes += buffer.length;
+			}
+		}
+	}
+
+	/**
+	 * @param minSize Minimum size of the buffer.
+	 * @return A char buffer at least as large as the specified size. Its contents are undefined.
+	 */
+	public char[] acquireChars(int minSize) {
+		int sizeClass = sizeClassFor(minSize);
+		if (sizeClass < 0)
+			return new char[minSize];
+
+		synchronized (charBuffers) {
+			char[] buffer = charBuffers[sizeClass].pollLast();
+			if (buffer != null) {
+				retainedChars -= buffer.length;
+				return buffer;
+			}
+		}
+		return new char[1 << (sizeClass + MIN_SHIFT)];
+	}
+
+	/**
+	 * Returns a buffer obtained from {@link #acquireChars(int)} to this pool.
+	 * It must not be used by the caller afterwards.
+	 * @param buffer Buffer to release. May be null.
+	 */
+	public void release(char[] buffer) {
+		int sizeClass = buffer == null ? -1 : sizeClassOf(buffer.length);
+		if (sizeClass < 0)
+			return;
+
+		synchronized (charBuffers) {
+			// Chars take up two bytes each
+			if (2 * (retainedChars + buffer.length) <= MAX_RETAINED_BYTES) {
+				charBuffers[sizeClass].addLast(buffer);
+				retainedChars += buffer.length;
+			}
+		}
+	}
+
+	/**
+	 * @return Index of the smallest size class fitting the specified size or -1 if too large.
+	 */
+	private static int sizeClassFor(int size) {
+		for (int sizeClass = 0; sizeClass < CLASSES; sizeClass++) {
+			if (size <= 1 << (sizeClass + MIN_SHIFT))
+				return sizeClass;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return Index of the size class matching the specified length exactly or -1 if none does.
+	 */
+	private static int sizeClassOf(int length) {
+		int sizeClass = sizeClassFor(length);
+		return sizeClass >= 0 && length == 1 << (sizeClass + MIN_SHIFT) ? sizeClass : -1;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> ArrayDeque<T>[] newDeques() {
+		ArrayDeque<T>[] deques = (ArrayDeque<T>[]) new ArrayDeque<?>[CLASSES];
+		for (int i = 0; i < CLASSES; i++)
+			deques[i] = new ArrayDeque<T>();
+		return deques;
+	}
+}
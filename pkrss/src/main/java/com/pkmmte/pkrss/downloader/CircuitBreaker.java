@@ -0,0 +1,103 @@
+package com.pkmmte.pkrss.downloader;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-host circuit breaker used by {@link Downloader} to fail fast on dead hosts.
+ * <p>
+ * After a number of consecutive failures a host's circuit opens and every request to
+ * it fails immediately for a cool-down period. Once that passes, a single probe request
+ * is let through (half-open). If it succeeds the circuit closes again, otherwise it
+ * reopens for another cool-down period.
+ */
+public class CircuitBreaker {
+	public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+	public static final long DEFAULT_COOLDOWN = 60000;
+
+	private static final int CLOSED = 0;
+	private static final int OPEN = 1;
+	private static final int HALF_OPEN = 2;
+
+	private final int failureThreshold;
+	private final long cooldown;
+	private final Map<String, Circuit> circuits = new HashMap<String, Circuit>();
+
+	public CircuitBreaker() {
+		this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_COOLDOWN);
+	}
+
+	/**
+	 * @param failureThreshold Consecutive failures after which a host's circuit opens.
+	 * @param cooldown Time in milliseconds for which an open circuit fails fast.
+	 */
+	public CircuitBreaker(int failureThreshold, long cooldown) {
+		if (failureThreshold < 1 || cooldown < 0)
+			throw new IllegalArgumentException("Invalid circuit breaker configuration!");
+
+		this.failureThreshold = failureThreshold;
+		this.cooldown = cooldown;
+	}
+
+	/**
+	 * Checks whether a request to the specified host may be executed. Callers which are
+	 * allowed through must report the outcome via {@link #onSuccess(String)} or
+	 * {@link #onFailure(String)}.
+	 * @param host Host to check.
+	 * @return {@code true} if the request may proceed, {@code false} if it should fail fast.
+	 */
+	public synchronized boolean allowRequest(String host) {
+		Circuit circuit = circuits.get(host);
+		if (circuit == null || circuit.state == CLOSED)
+			return true;
+
+		// Let a single probe through once the cool-down has passed
+		if (circuit.state == OPEN && System.currentTimeMillis() - circuit.openedAt >= cooldown) {
+			circuit.state = HALF_OPEN;
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Reports a successful request to the specified host, closing its circuit.
+	 * @param host Host the request was made to.
+	 */
+	public synchronized void onSuccess(String host) {
+		circuits.remove(host);
+	}
+
+	/**
+	 * Reports a failed request to the specified host.
+	 * @param host Host the request was made to.
+	 */
+	public synchronized void onFailure(String host) {
+		Circuit circuit = circuits.get(host);
+		if (circuit == null) {
+			circuit = new Circuit();
+			circuits.put(host, circuit);
+		}
+
+		circuit.failures++;
+		if (circuit.state == HALF_OPEN || circuit.failures >= failureThreshold) {
+			circuit.state = OPEN;
+			circuit.openedAt = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * @param host Host to check.
+	 * @return {@code true} if requests to this host currently fail fast.
+	 */
+	public synchronized boolean isOpen(String host) {
+		Circuit circuit = circuits.get(host);
+		return circuit != null && circuit.state != CLOSED;
+	}
+
+	private static class Circuit {
+		private int state = CLOSED;
+		private int failures;
+		private long openedAt;
+	}
+}
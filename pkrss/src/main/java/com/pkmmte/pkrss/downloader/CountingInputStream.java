@@ -0,0 +1,59 @@
+package com.pkmmte.pkrss.downloader;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An {@link InputStream} wrapper which counts the bytes read through it.
+ */
+public class CountingInputStream extends FilterInputStream {
+	private volatile long count;
+	private long mark;
+
+	public CountingInputStream(InputStream in) {
+		super(in);
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+		if (b != -1)
+			count++;
+		return b;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		int read = super.read(buffer, offset, length);
+		if (read > 0)
+			count += read;
+		return read;
+	}
+
+	@Override
+	public long skip(long length) throws IOException {
+		long skipped = super.skip(length);
+		count += skipped;
+		return skipped;
+	}
+
+	@Override
+	public synchronized void mark(int readLimit) {
+		super.mark(readLimit);
+		mark = count;
+	}
+
+	@Override
+	public synchronized void reset() throws IOException {
+		super.reset();
+		count = mark;
+	}
+
+	/**
+	 * @return Number of bytes read so far.
+	 */
+	public long getCount() {
+		return count;
+	}
+}
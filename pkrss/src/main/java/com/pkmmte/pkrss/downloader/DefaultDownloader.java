@@ -7,35 +7,49 @@ import android.util.Log;
 import com.pkmmte.pkrss.Request;
 import com.pkmmte.pkrss.Utils;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
  * The Default Downloader object used for general purposes.
  * <p>
  * This Downloader class uses Android's built-in HttpUrlConnection for
- * networking. It is recommended to use the OkHttpDownloader instead as
+ * networking. Responses are always requested with gzip/deflate compression
+ * and decompressed while they stream into the parser. It is recommended to use the OkHttpDownloader instead as
  * it is more stable and potentially performs better.
  */
 public class DefaultDownloader extends Downloader {
-	// OkHttpClient & configuration
+	// HttpURLConnection configuration
 	private final File cacheDir;
-	private final int cacheSize = 1024 * 1024;
-	private final int cacheMaxAge = 2 * 60 * 60;
-	private final long connectTimeout = 15000;
-	private final long readTimeout = 45000;
-	private HttpURLConnection connection;
+	private final int cacheMaxAge;
+
+	// Size of buffers used for decompressing responses
+	private static final int BUFFER_SIZE = 8192;
 
 	public DefaultDownloader(Context context)  {
-		cacheDir = new File(context.getCacheDir(), "http");
+		this(context, null, DEFAULT_CACHE_SIZE, DEFAULT_CACHE_MAX_AGE);
+	}
+
+	/**
+	 * @param context Application context.
+	 * @param cacheDir Directory in which to store the HTTP cache. May be null to use the default.
+	 * @param cacheSize Maximum size of the HTTP cache in bytes.
+	 * @param cacheMaxAge Default time in seconds for which cached responses are fresh.
+	 */
+	public DefaultDownloader(Context context, File cacheDir, long cacheSize, int cacheMaxAge)  {
+		this.cacheDir = cacheDir != null ? cacheDir : new File(context.getCacheDir(), "http");
+		this.cacheMaxAge = cacheMaxAge;
 		try {
-			HttpResponseCache.install(cacheDir, cacheSize);
+			HttpResponseCache.install(this.cacheDir, cacheSize);
 		}
 		catch (IOException e) {
 			Log.i(TAG, "HTTP response cache installation failed:" + e);
@@ -48,31 +62,108 @@ public class DefaultDownloader extends Downloader {
 	}
 
 	@Override
-	public InputStream getStream(Request request) throws IllegalArgumentException, IOException {
+	public Response getStream(Request request) throws IllegalArgumentException, IOException {
 		// Invalid URLs are a big no no
 		if (request.url == null || request.url.isEmpty()) {
 			throw new IllegalArgumentException("Invalid URL!");
 		}
 
 		// Handle cache
-		int maxCacheAge = request.skipCache ? 0 : cacheMaxAge;
+		String cacheControl = cacheControl(request, cacheMaxAge);
 
 		// Build proper URL
 		String requestUrl = toUrl(request);
 		URL url = new URL(requestUrl);
 
 		// Open a connection and configure timeouts/cache
-		connection = (HttpURLConnection) url.openConnection();
-		connection.setRequestProperty("Cache-Control", "public, max-age=" + maxCacheAge);
-		connection.setConnectTimeout((int) connectTimeout);
-		connection.setReadTimeout((int) readTimeout);
+		final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setRequestProperty("Cache-Control", cacheControl);
+		connection.setRequestProperty("Accept-Encoding", "gzip, deflate");
+		connection.setConnectTimeout((int) connectTimeout(request));
+		connection.setReadTimeout((int) readTimeout(request));
+		for (Map.Entry<String, String> header : request.headers.entrySet())
+			connection.setRequestProperty(header.getKey(), header.getValue());
+
+		// Execute the request and tie the connection to its response
+		log("Making a request to " + requestUrl + " [" + cacheControl + "]");
+		long startMillis = System.currentTimeMillis();
+		long sentMillis;
+		int code;
+		CountingInputStream compressedStream;
+		InputStream inputStream;
+		try {
+			// Connect separately so connect and first byte latencies can be told apart
+			connection.connect();
+			sentMillis = System.currentTimeMillis();
+
+			// Error responses are handed back too so callers can inspect their status
+			code = connection.getResponseCode();
+			inputStream = code >= 400 ? connection.getErrorStream() : connection.getInputStream();
+			inputStream = inputStream == null ? new ByteArrayInputStream(new byte[0]) : new PooledBufferedInputStream(inputStream, BufferPool.getDefault());
+
+			// Count bytes on the wire before decompressing them
+			compressedStream = new CountingInputStream(inputStream);
+			inputStream = decode(compressedStream, connection.getContentEncoding());
+		} catch (IOException e) {
+			connection.disconnect();
+			throw e;
+		}
 
-		return new BufferedInputStream(connection.getInputStream());
+		return new Response.Builder(inputStream)
+			.code(code)
+			.headers(connection.getHeaderFields())
+			.compressedStream(compressedStream)
+			.fromCache(isFromCache(connection))
+			.startMillis(startMillis)
+			.sentMillis(sentMillis)
+			.receivedMillis(System.currentTimeMillis())
+			.connection(new Closeable() {
+				@Override
+				public void close() {
+					connection.disconnect();
+				}
+			})
+			.build();
 	}
 
-	@Override
-	public void closeConnection() {
-		connection.disconnect();
+	/**
+	 * Wraps the passed stream in a decompressing stream matching its content encoding.
+	 * @param inputStream Raw response stream. Must support marking.
+	 * @param encoding Value of the Content-Encoding header. May be null.
+	 * @return A stream of the decompressed response body.
+	 * @throws IOException
+	 */
+	private static InputStream decode(InputStream inputStream, String encoding) throws IOException {
+		if (encoding == null)
+			return inputStream;
+
+		// Empty bodies (e.g. 304 Not Modified) have no compression header to read
+		inputStream.mark(2);
+		int first = inputStream.read();
+		int second = inputStream.read();
+		inputStream.reset();
+		if (first == -1)
+			return inputStream;
+
+		if (encoding.equalsIgnoreCase("gzip") || encoding.equalsIgnoreCase("x-gzip"))
+			return new GZIPInputStream(inputStream, BUFFER_SIZE);
+
+		if (encoding.equalsIgnoreCase("deflate")) {
+			// Some servers send raw deflate data without the zlib wrapper
+			boolean zlib = (first & 0x0f) == 8 && ((first << 8) | second) % 31 == 0;
+			return new InflaterInputStream(inputStream, new Inflater(!zlib), BUFFER_SIZE);
+		}
+
+		return inputStream;
+	}
+
+	/**
+	 * @param connection Connection whose response was received.
+	 * @return {@code true} if Android's response cache served it without touching the network.
+	 */
+	private static boolean isFromCache(HttpURLConnection connection) {
+		String source = connection.getHeaderField("X-Android-Response-Source");
+		return source != null && source.startsWith("CACHE");
 	}
 
 	@Override
@@ -1,10 +1,17 @@
 package com.pkmmte.pkrss.downloader;
 
+import android.net.Uri;
 import android.util.Log;
 import com.pkmmte.pkrss.PkRSS;
 import com.pkmmte.pkrss.Request;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
 
 /**
  * Base Downloader class for Downloader objects.
@@ -14,10 +21,30 @@ import java.io.InputStream;
  * and format URLs properly.
  */
 public abstract class Downloader {
+	// Default cache configuration
+	public static final long DEFAULT_CACHE_SIZE = 10 * 1024 * 1024;
+	public static final int DEFAULT_CACHE_MAX_AGE = 2 * 60 * 60;
+
+	// Default network configuration
+	public static final long DEFAULT_CONNECT_TIMEOUT = 15000;
+	public static final long DEFAULT_READ_TIMEOUT = 45000;
+
+	// Status codes servers use to ask clients to back off
+	private static final int HTTP_TOO_MANY_REQUESTS = 429;
+	private static final int HTTP_UNAVAILABLE = 503;
+
 	// For logging purposes
 	final String TAG = "Downloader";
 	PkRSS singleton;
 
+	// Failure handling
+	private volatile long connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+	private volatile long readTimeout = DEFAULT_READ_TIMEOUT;
+	private volatile RetryPolicy retryPolicy = new RetryPolicy();
+	private volatile CircuitBreaker circuitBreaker = new CircuitBreaker();
+	private volatile AdaptiveTimeouts adaptiveTimeouts = new AdaptiveTimeouts();
+	private volatile RateLimiter rateLimiter = new RateLimiter();
+
 	/**
 	 * Clears the {@link Downloader} cache.
 	 * @return {@code true} if successful, {@code false} if otherwise.
@@ -25,18 +52,235 @@ public abstract class Downloader {
 	public abstract boolean clearCache();
 
 	/**
-	 * Executes the specified request and returns the response String.
+	 * Executes the specified request, retrying transient failures according to the
+	 * {@link RetryPolicy} and failing fast for hosts whose {@link CircuitBreaker} is open.
+	 * <p>
+	 * Blocks while the host is throttled by the {@link RateLimiter}. Asynchronous callers
+	 * should check {@link #getThrottleDelay(Request)} first and come back later instead.
+	 * Background requests, such as prefetches and media downloads, bypass both the rate
+	 * limiter and the circuit breaker so they never hold up or fail feed requests.
+	 * @param request PkRSS Request object containing all necessary parameters.
+	 * @return Successful response holding the downloaded stream. Must be closed by the caller.
+	 * @throws IllegalArgumentException
+	 * @throws IOException If the request failed or the final response was unsuccessful.
+	 */
+	public final Response execute(Request request) throws IllegalArgumentException, IOException {
+		// Cache-only requests never touch the network so they don't say anything about the host
+		final String host = request.onlyIfCached ? null : getHost(request);
+		final RetryPolicy retryPolicy = this.retryPolicy;
+		final CircuitBreaker circuitBreaker = host == null || request.background ? null : this.circuitBreaker;
+		final AdaptiveTimeouts adaptiveTimeouts = host == null ? null : this.adaptiveTimeouts;
+		final RateLimiter rateLimiter = host == null || request.background ? null : this.rateLimiter;
+
+		for (int attempt = 1; ; attempt++) {
+			if (rateLimiter != null)
+				acquire(rateLimiter, host, request);
+
+			if (circuitBreaker != null && !circuitBreaker.allowRequest(host))
+				throw new IOException("Circuit open for " + host + ", failing fast!");
+
+			Response response = null;
+			IOException error = null;
+			try {
+				response = getStream(request);
+			} catch (IOException e) {
+				error = e;
+
+				// Hosts which keep timing out are given more time until they respond again
+				if (adaptiveTimeouts != null && e instanceof SocketTimeoutException)
+					adaptiveTimeouts.recordTimeout(host);
+			} catch (RuntimeException e) {
+				if (circuitBreaker != null)
+					circuitBreaker.onFailure(host);
+				throw e;
+			}
+
+			// Honor requests to back off
+			int code = response == null ? -1 : response.getCode();
+			if (rateLimiter != null && (code == HTTP_TOO_MANY_REQUESTS || code == HTTP_UNAVAILABLE)) {
+				long retryAfter = parseRetryAfter(response.getHeader("Retry-After"));
+				if (retryAfter < 0 && code == HTTP_TOO_MANY_REQUESTS)
+					retryAfter = retryPolicy.getDelay(attempt);
+				if (retryAfter > 0) {
+					log("Host " + host + " asked to back off for " + retryAfter + "ms");
+					rateLimiter.throttle(host, retryAfter);
+				}
+			}
+
+			// Only transient errors count against the host, anything else means it's alive
+			boolean transientError = response == null ? retryPolicy.isTransient(error) : retryPolicy.isTransient(code);
+			if (circuitBreaker != null) {
+				if (transientError && code != HTTP_TOO_MANY_REQUESTS)
+					circuitBreaker.onFailure(host);
+				else
+					circuitBreaker.onSuccess(host);
+			}
+
+			if (response != null) {
+				if (adaptiveTimeouts != null && !response.isFromCache() && response.getStartMillis() > 0) {
+					adaptiveTimeouts.record(host, response.getSentMillis() - response.getStartMillis(),
+					                        response.getReceivedMillis() - response.getSentMillis());
+				}
+
+				if (response.getCode() < 400)
+					return response;
+
+				response.close();
+				error = new IOException("Unsuccessful response " + response.getCode() + " for " + toUrl(request));
+			}
+
+			if (!transientError || request.onlyIfCached || attempt > retryPolicy.getMaxRetries())
+				throw error;
+
+			// Don't hold on to this thread for hosts which asked for a long break
+			if (rateLimiter != null && rateLimiter.getDelay(host) > retryPolicy.getMaxDelay())
+				throw error;
+
+			long delay = retryPolicy.getDelay(attempt);
+			log("Attempt " + attempt + " for " + request.tag + " failed (" + error.getMessage() + "), retrying in " + delay + "ms");
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException("Interrupted while waiting to retry " + request.tag);
+			}
+		}
+	}
+
+	/**
+	 * @param request Request about to be executed.
+	 * @return Time in milliseconds to wait before executing this request without blocking
+	 * on the {@link RateLimiter}, or 0 if it may be executed right away.
+	 */
+	public long getThrottleDelay(Request request) {
+		RateLimiter rateLimiter = this.rateLimiter;
+		String host = rateLimiter == null || request.onlyIfCached || request.background ? null : getHost(request);
+		return host == null ? 0 : rateLimiter.getDelay(host);
+	}
+
+	/**
+	 * @param request Request about to be executed.
+	 * @return Host this request goes to over the network or null if it isn't an HTTP request.
+	 */
+	private String getHost(Request request) {
+		if (request.url == null)
+			return null;
+
+		Uri uri = Uri.parse(toUrl(request));
+		String scheme = uri.getScheme();
+		return "http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme) ? uri.getHost() : null;
+	}
+
+	/**
+	 * Waits until a token is available for the specified host and takes it.
+	 */
+	private void acquire(RateLimiter rateLimiter, String host, Request request) throws InterruptedIOException {
+		long delay;
+		while ((delay = rateLimiter.tryAcquire(host)) > 0) {
+			log("Host " + host + " is throttled, waiting " + delay + "ms for " + request.tag);
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException("Interrupted while waiting for " + host);
+			}
+		}
+	}
+
+	/**
+	 * Parses a Retry-After header value, which is either a number of seconds or an HTTP date.
+	 * @param value Header value. May be null.
+	 * @return Time in milliseconds to wait or -1 if not specified or malformed.
+	 */
+	private static long parseRetryAfter(String value) {
+		if (value == null)
+			return -1;
+
+		try {
+			return Math.max(0, Long.parseLong(value.trim()) * 1000);
+		} catch (NumberFormatException ignored) {}
+
+		try {
+			DateFormat httpDate = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+			httpDate.setTimeZone(TimeZone.getTimeZone("GMT"));
+			return Math.max(0, httpDate.parse(value.trim()).getTime() - System.currentTimeMillis());
+		} catch (ParseException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Executes the specified request and returns its response.
+	 * <p>
+	 * Implementations must not keep any per-request state outside of the returned
+	 * {@link Response} as the same Downloader may execute several requests at once.
 	 * @param request PkRSS Request object containing all necessary parameters.
-	 * @return InputStream of downloaded stream
+	 * @return Response holding the downloaded stream. Must be closed by the caller.
 	 * @throws IllegalArgumentException
 	 * @throws IOException
 	 */
-	public abstract InputStream getStream(Request request) throws IllegalArgumentException, IOException;
+	public abstract Response getStream(Request request) throws IllegalArgumentException, IOException;
+
+	/**
+	 * @param request Request about to be executed.
+	 * @return Connect timeout in milliseconds to use for this request.
+	 */
+	protected long connectTimeout(Request request) {
+		AdaptiveTimeouts adaptiveTimeouts = this.adaptiveTimeouts;
+		String host = adaptiveTimeouts == null ? null : getHost(request);
+		return host == null ? connectTimeout : adaptiveTimeouts.connectTimeout(host, connectTimeout);
+	}
+
+	/**
+	 * @param request Request about to be executed.
+	 * @return Read timeout in milliseconds to use for this request.
+	 */
+	protected long readTimeout(Request request) {
+		AdaptiveTimeouts adaptiveTimeouts = this.adaptiveTimeouts;
+		String host = adaptiveTimeouts == null ? null : getHost(request);
+		return host == null ? readTimeout : adaptiveTimeouts.readTimeout(host, readTimeout);
+	}
 
 	/**
-	 * Close connection opened with {@code getStream} after usage of stream is done
+	 * Sets the connect and read timeouts used by this Downloader. If adaptive timeouts are
+	 * enabled, these are only used for hosts without enough latency history.
+	 * @param connectTimeout Connect timeout in milliseconds.
+	 * @param readTimeout Read timeout in milliseconds.
 	 */
-	public abstract void closeConnection();
+	public void setTimeouts(long connectTimeout, long readTimeout) {
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+	}
+
+	/**
+	 * Sets the policy deciding whether and when failed requests are retried.
+	 * @param retryPolicy Policy to use. Use {@code new RetryPolicy(0, 0, 0)} to disable retries.
+	 */
+	public void setRetryPolicy(RetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+	}
+
+	/**
+	 * Sets the tracker deriving per-host timeouts from observed latencies.
+	 * @param adaptiveTimeouts Tracker to use or null to always use the fixed timeouts.
+	 */
+	public void setAdaptiveTimeouts(AdaptiveTimeouts adaptiveTimeouts) {
+		this.adaptiveTimeouts = adaptiveTimeouts;
+	}
+
+	/**
+	 * Sets the per-host rate limiter.
+	 * @param rateLimiter Rate limiter to use or null to disable rate limiting.
+	 */
+	public void setRateLimiter(RateLimiter rateLimiter) {
+		this.rateLimiter = rateLimiter;
+	}
+
+	/**
+	 * Sets the circuit breaker tracking failing hosts.
+	 * @param circuitBreaker Circuit breaker to use.
+	 */
+	public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+		this.circuitBreaker = circuitBreaker;
+	}
 
 	/**
 	 * Parses a request into a safe URL to be used for caching/tracking purposes.
@@ -57,6 +301,28 @@ public abstract class Downloader {
 	 */
 	public abstract String toUrl(Request request);
 
+	/**
+	 * Builds the Cache-Control request header value for the specified request.
+	 * @param request PkRSS Request object containing all necessary parameters.
+	 * @param defaultMaxAge Maximum age in seconds to use if the request doesn't specify one.
+	 * @return Cache-Control header value.
+	 */
+	protected String cacheControl(Request request, int defaultMaxAge) {
+		// Neither read nor write the cache, e.g. for large media which would evict every feed
+		if (request.noStore)
+			return "no-cache, no-store";
+
+		int maxAge = request.skipCache ? 0 : request.maxAge != null ? request.maxAge : defaultMaxAge;
+		int maxStale = request.skipCache ? -1 : Math.max(request.maxStale, request.staleWhileRevalidate);
+
+		StringBuilder cacheControl = new StringBuilder("public, max-age=").append(maxAge);
+		if (maxStale >= 0)
+			cacheControl.append(", max-stale=").append(maxStale);
+		if (request.onlyIfCached)
+			cacheControl.append(", only-if-cached");
+		return cacheControl.toString();
+	}
+
 	/**
 	 * Attaches a {@link PkRSS} singleton instance to this Downloader for logging purposes.
 	 * @param singleton Singleton instance to attach to this Parser
@@ -0,0 +1,137 @@
+package com.pkmmte.pkrss.downloader;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.net.Uri;
+import com.pkmmte.pkrss.Request;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A Downloader for local feeds using {@code file://} and {@code asset://} URLs.
+ * <p>
+ * Files and uncompressed assets are memory-mapped and handed to the parser without
+ * copying them through intermediate buffers. Mappings are only paged in as the parser
+ * decodes them window by window, so even large files take constant heap. This is useful
+ * for importing exported feed archives, seeding bundled feeds, and as a deterministic
+ * network-free source for benchmarks. Assets compressed inside the APK can't be mapped
+ * and are streamed instead.
+ * <p>
+ * Example: {@code asset://feeds/news.xml} loads {@code feeds/news.xml} from the app's assets.
+ */
+public class FileDownloader extends Downloader {
+	public static final String SCHEME_FILE = "file";
+	public static final String SCHEME_ASSET = "asset";
+
+	private final AssetManager assets;
+
+	public FileDownloader(Context context) {
+		this.assets = context.getApplicationContext().getAssets();
+	}
+
+	/**
+	 * @param url URL to check.
+	 * @return {@code true} if the URL points to a local file or asset this Downloader can load.
+	 */
+	public static boolean canLoad(String url) {
+		if (url == null)
+			return false;
+
+		String scheme = Uri.parse(url).getScheme();
+		return SCHEME_FILE.equalsIgnoreCase(scheme) || SCHEME_ASSET.equalsIgnoreCase(scheme);
+	}
+
+	@Override
+	public boolean clearCache() {
+		// Nothing is ever cached
+		return true;
+	}
+
+	@Override
+	public Response getStream(Request request) throws IllegalArgumentException, IOException {
+		// Invalid URLs are a big no no
+		if (!canLoad(request.url)) {
+			throw new IllegalArgumentException("Invalid URL!");
+		}
+
+		long startMillis = System.currentTimeMillis();
+		Uri uri = Uri.parse(toUrl(request));
+		InputStream inputStream = SCHEME_FILE.equalsIgnoreCase(uri.getScheme()) ? openFile(uri) : openAsset(uri);
+		log("Opened local feed " + uri);
+
+		long now = System.currentTimeMillis();
+		return new Response.Builder(inputStream)
+			.startMillis(startMillis)
+			.sentMillis(startMillis)
+			.receivedMillis(now)
+			.build();
+	}
+
+	/**
+	 * Maps the file the passed URI points to into memory.
+	 */
+	private InputStream openFile(Uri uri) throws IOException {
+		File file = new File(uri.getPath());
+		if (!file.isFile())
+			throw new FileNotFoundException("No such file " + file);
+
+		FileInputStream inputStream = new FileInputStream(file);
+		try {
+			FileChannel channel = inputStream.getChannel();
+			return new ByteBufferInputStream(map(channel, 0, channel.size()));
+		} finally {
+			// The mapping stays valid after the channel is closed
+			inputStream.close();
+		}
+	}
+
+	/**
+	 * Maps the asset the passed URI points to into memory, or streams it if it's compressed.
+	 */
+	private InputStream openAsset(Uri uri) throws IOException {
+		String path = ((uri.getAuthority() == null ? "" : uri.getAuthority()) + (uri.getPath() == null ? "" : uri.getPath()));
+		while (path.startsWith("/"))
+			path = path.substring(1);
+
+		AssetFileDescriptor descriptor;
+		try {
+			descriptor = assets.openFd(path);
+		} catch (FileNotFoundException e) {
+			// Compressed assets have no file descriptor but may still exist
+			return assets.open(path, AssetManager.ACCESS_STREAMING);
+		}
+
+		FileInputStream inputStream = descriptor.createInputStream();
+		try {
+			return new ByteBufferInputStream(map(inputStream.getChannel(), descriptor.getStartOffset(), descriptor.getLength()));
+		} finally {
+			inputStream.close();
+			descriptor.close();
+		}
+	}
+
+	private static MappedByteBuffer map(FileChannel channel, long offset, long length) throws IOException {
+		if (length > Integer.MAX_VALUE)
+			throw new IOException("Feed too large to map: " + length + " bytes");
+
+		return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+	}
+
+	@Override
+	public String toSafeUrl(Request request) {
+		// Local feeds have no search or pagination
+		return request.url;
+	}
+
+	@Override
+	public String toUrl(Request request) {
+		return request.url;
+	}
+}
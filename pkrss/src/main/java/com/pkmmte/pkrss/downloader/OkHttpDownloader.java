@@ -6,11 +6,9 @@ import android.util.Log;
 import com.pkmmte.pkrss.Request;
 import com.squareup.okhttp.Cache;
 import com.squareup.okhttp.OkHttpClient;
-import com.squareup.okhttp.RequestBody;
-import com.squareup.okhttp.Response;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -23,19 +21,30 @@ import java.util.concurrent.TimeUnit;
 public class OkHttpDownloader extends Downloader {
 	// OkHttpClient & configuration
 	private final OkHttpClient client = new OkHttpClient();
-	private final String cacheDir = "/okhttp";
-	private final int cacheSize = 1024 * 1024;
-	private final int cacheMaxAge = 2 * 60 * 60;
-	private final long connectTimeout = 15;
-	private final long readTimeout = 45;
+	private final File cacheDir;
+	private final int cacheMaxAge;
+
+	// Timestamp headers OkHttp adds to network responses
+	private static final String SENT_MILLIS = "OkHttp-Sent-Millis";
+	private static final String RECEIVED_MILLIS = "OkHttp-Received-Millis";
 
 	public OkHttpDownloader(Context context) {
-		this.client.setConnectTimeout(connectTimeout, TimeUnit.SECONDS);
-		this.client.setReadTimeout(readTimeout, TimeUnit.SECONDS);
+		this(context, null, DEFAULT_CACHE_SIZE, DEFAULT_CACHE_MAX_AGE);
+	}
 
+	/**
+	 * @param context Application context.
+	 * @param cacheDir Directory in which to store the HTTP cache. May be null to use the default.
+	 * @param cacheSize Maximum size of the HTTP cache in bytes.
+	 * @param cacheMaxAge Default time in seconds for which cached responses are fresh.
+	 */
+	public OkHttpDownloader(Context context, File cacheDir, long cacheSize, int cacheMaxAge) {
+		this.client.setConnectTimeout(DEFAULT_CONNECT_TIMEOUT, TimeUnit.MILLISECONDS);
+		this.client.setReadTimeout(DEFAULT_READ_TIMEOUT, TimeUnit.MILLISECONDS);
+		this.cacheDir = cacheDir != null ? cacheDir : new File(context.getCacheDir().getAbsolutePath() + "/okhttp");
+		this.cacheMaxAge = cacheMaxAge;
 		try {
-			File cacheDir = new File(context.getCacheDir().getAbsolutePath() + this.cacheDir);
-			this.client.setCache(new Cache(cacheDir, cacheSize));
+			this.client.setCache(new Cache(this.cacheDir, cacheSize));
 		} catch (Exception e) {
 			Log.e(TAG, "Error configuring Downloader cache! \n" + e.getMessage());
 		}
@@ -52,39 +61,92 @@ public class OkHttpDownloader extends Downloader {
 	}
 
 	@Override
-	public InputStream getStream(Request request) throws IllegalArgumentException, IOException {
+	public Response getStream(Request request) throws IllegalArgumentException, IOException {
 		// Invalid URLs are a big no no
 		if (request.url == null || request.url.isEmpty()) {
 			throw new IllegalArgumentException("Invalid URL!");
 		}
 
 		// Handle cache
-		int maxCacheAge = request.skipCache ? 0 : cacheMaxAge;
+		String cacheControl = cacheControl(request, cacheMaxAge);
 
 		// Build proper URL
 		String requestUrl = toUrl(request);
 
 		// Build the OkHttp request
-		com.squareup.okhttp.Request httpRequest = new com.squareup.okhttp.Request.Builder()
-			.addHeader("Cache-Control", "public, max-age=" + maxCacheAge)
-			.url(requestUrl)
-			.build();
+		com.squareup.okhttp.Request.Builder requestBuilder = new com.squareup.okhttp.Request.Builder()
+			.addHeader("Cache-Control", cacheControl)
+			.url(requestUrl);
+		for (Map.Entry<String, String> header : request.headers.entrySet())
+			requestBuilder.header(header.getKey(), header.getValue());
+		com.squareup.okhttp.Request httpRequest = requestBuilder.build();
 
 		try {
 			// Execute the built request and log its data
-			log("Making a request to " + requestUrl + (request.skipCache ? " [SKIP-CACHE]" : " [MAX-AGE " + maxCacheAge + "]"));
-			Response response = client.newCall(httpRequest).execute();
-			return response.body().byteStream();
+			log("Making a request to " + requestUrl + " [" + cacheControl + "]");
+			long startMillis = System.currentTimeMillis();
+			com.squareup.okhttp.Response response = clientFor(request).newCall(httpRequest).execute();
+			long receivedMillis = System.currentTimeMillis();
+
+			// OkHttp answers unsatisfiable only-if-cached requests with a 504
+			if (request.onlyIfCached && response.code() == 504) {
+				response.body().close();
+				throw new IOException("No cached response for " + requestUrl);
+			}
+
+			// Closing the body releases the connection back to the pool
+			return new Response.Builder(response.body().byteStream())
+				.code(response.code())
+				.headers(response.headers().toMultimap())
+				.fromCache(response.networkResponse() == null)
+				.startMillis(startMillis)
+				.sentMillis(parseMillis(response.header(SENT_MILLIS), startMillis))
+				.receivedMillis(parseMillis(response.header(RECEIVED_MILLIS), receivedMillis))
+				.connection(response.body())
+				.build();
+		} catch (IOException e) {
+			// Keep the type so retries can tell transient failures apart
+			log("Error executing/reading http request!", Log.ERROR);
+			e.printStackTrace();
+			throw e;
 		} catch (Exception e) {
 			log("Error executing/reading http request!", Log.ERROR);
 			e.printStackTrace();
-			throw new IOException(e.getMessage());
+			throw new IOException(e.getMessage(), e);
 		}
 	}
 
-	@Override
-	public void closeConnection() {
-		// nothing to do
+	/**
+	 * @param value Timestamp header value written by OkHttp.
+	 * @param fallback Value to return if the header is missing or malformed.
+	 * @return The parsed timestamp in milliseconds.
+	 */
+	private static long parseMillis(String value, long fallback) {
+		if (value == null)
+			return fallback;
+
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			return fallback;
+		}
+	}
+
+	/**
+	 * @param request Request about to be executed.
+	 * @return The shared client or, if this request needs different timeouts, a copy
+	 * of it sharing the same connection pool and cache.
+	 */
+	private OkHttpClient clientFor(Request request) {
+		long connectTimeout = connectTimeout(request);
+		long readTimeout = readTimeout(request);
+		if (client.getConnectTimeout() == connectTimeout && client.getReadTimeout() == readTimeout)
+			return client;
+
+		OkHttpClient client = this.client.clone();
+		client.setConnectTimeout(connectTimeout, TimeUnit.MILLISECONDS);
+		client.setReadTimeout(readTimeout, TimeUnit.MILLISECONDS);
+		return client;
 	}
 
 	@Override
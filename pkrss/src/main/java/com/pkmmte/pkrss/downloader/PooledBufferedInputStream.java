@@ -0,0 +1,39 @@
+package com.pkmmte.pkrss.downloader;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A {@link BufferedInputStream} whose buffer is borrowed from a {@link BufferPool}
+ * and returned to it once the stream is closed.
+ */
+public class PooledBufferedInputStream extends BufferedInputStream {
+	private static final int BUFFER_SIZE = 8192;
+
+	private final BufferPool pool;
+	private byte[] pooledBuffer;
+
+	public PooledBufferedInputStream(InputStream in, BufferPool pool) {
+		// Start with a minimal buffer and swap in a pooled one right away
+		super(in, 1);
+		this.pool = pool;
+		this.pooledBuffer = pool.acquireBytes(BUFFER_SIZE);
+		this.buf = pooledBuffer;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			super.close();
+		} finally {
+			synchronized (this) {
+				if (pooledBuffer != null) {
+					buf = null;
+					pool.release(pooledBuffer);
+					pooledBuffer = null;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package com.pkmmte.pkrss.downloader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A {@link ByteArrayOutputStream} which grows through buffers borrowed from a {@link BufferPool}.
+ * <p>
+ * Written data can be read back through {@link #toInputStream()} without copying it.
+ * Call {@link #release()} once done to return the buffer to its pool.
+ */
+public class PooledByteArrayOutputStream extends ByteArrayOutputStream {
+	private final BufferPool pool;
+
+	public PooledByteArrayOutputStream(BufferPool pool, int initialSize) {
+		super(0);
+		this.pool = pool;
+		this.buf = pool.acquireBytes(Math.max(initialSize, 1));
+	}
+
+	@Override
+	public synchronized void write(int b) {
+		ensureCapacity(count + 1);
+		buf[count++] = (byte) b;
+	}
+
+	@Override
+	public synchronized void write(byte[] buffer, int offset, int length) {
+		if (offset < 0 || length < 0 || offset + length > buffer.length)
+			throw new IndexOutOfBoundsException();
+
+		ensureCapacity(count + length);
+		System.arraycopy(buffer, offset, buf, count, length);
+		count += length;
+	}
+
+	/**
+	 * Reads the passed stream until its end into this buffer. The stream is not closed.
+	 * @param inputStream Stream to read.
+	 * @return This stream.
+	 * @throws IOException
+	 */
+	public synchronized PooledByteArrayOutputStream readFrom(InputStream inputStream) throws IOException {
+		int read;
+		do {
+			ensureCapacity(count + 1);
+			read = inputStream.read(buf, count, buf.length - count);
+			if (read > 0)
+				count += read;
+		} while (read != -1);
+		return this;
+	}
+
+	/**
+	 * @return The underlying buffer. Only the first {@link #size()} bytes are valid.
+	 */
+	public synchronized byte[] getBuffer() {
+		return buf;
+	}
+
+	/**
+	 * @return A stream reading the written data without copying it. Only valid until released.
+	 */
+	public synchronized InputStream toInputStream() {
+		return new ByteArrayInputStream(buf, 0, count);
+	}
+
+	/**
+	 * Returns the underlying buffer to the pool. This stream must not be used afterwards.
+	 */
+	public synchronized void release() {
+		if (buf != null) {
+			pool.release(buf);
+			buf = null;
+			count = 0;
+		}
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity <= buf.length)
+			return;
+
+		byte[] grown = pool.acquireBytes(Math.max(capacity, buf.length * 2));
+		System.arraycopy(buf, 0, grown, 0, count);
+		pool.release(buf);
+		buf = grown;
+	}
+}
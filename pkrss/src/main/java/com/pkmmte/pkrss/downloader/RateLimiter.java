@@ -0,0 +1,101 @@
+package com.pkmmte.pkrss.downloader;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-host token bucket limiting how fast a {@link Downloader} hits the same host.
+ * <p>
+ * Each host's bucket refills at a steady rate up to a burst capacity and every request
+ * takes one token. Hosts which answered with {@code 429 Too Many Requests} or a
+ * {@code Retry-After} header are blocked entirely until the requested time has passed.
+ */
+public class RateLimiter {
+	public static final double DEFAULT_RATE = 2;
+	public static final int DEFAULT_BURST = 5;
+
+	private final double rate;
+	private final int burst;
+	private final Map<String, Bucket> buckets = new HashMap<String, Bucket>();
+
+	public RateLimiter() {
+		this(DEFAULT_RATE, DEFAULT_BURST);
+	}
+
+	/**
+	 * @param rate Requests per second allowed to each host over time.
+	 * @param burst Requests which may be made to an idle host at once.
+	 */
+	public RateLimiter(double rate, int burst) {
+		if (rate <= 0 || burst < 1)
+			throw new IllegalArgumentException("Invalid rate limit!");
+
+		this.rate = rate;
+		this.burst = burst;
+	}
+
+	/**
+	 * Takes a token for the specified host if one is available.
+	 * @param host Host about to be requested.
+	 * @return 0 if a token was taken, otherwise the time in milliseconds until one may be available.
+	 */
+	public synchronized long tryAcquire(String host) {
+		long delay = getDelay(host);
+		if (delay == 0)
+			buckets.get(host).tokens--;
+		return delay;
+	}
+
+	/**
+	 * Checks when a token will be available for the specified host without taking it.
+	 * @param host Host about to be requested.
+	 * @return 0 if a token is available now, otherwise the time in milliseconds until one may be available.
+	 */
+	public synchronized long getDelay(String host) {
+		long now = System.currentTimeMillis();
+		Bucket bucket = refill(host, now);
+		if (now < bucket.blockedUntil)
+			return bucket.blockedUntil - now;
+		if (bucket.tokens >= 1)
+			return 0;
+
+		return (long) Math.ceil((1 - bucket.tokens) * 1000 / rate);
+	}
+
+	/**
+	 * Blocks all requests to the specified host for the specified time, for example
+	 * after it answered with a {@code Retry-After} header.
+	 * @param host Host to block.
+	 * @param millis Time in milliseconds to block it for.
+	 */
+	public synchronized void throttle(String host, long millis) {
+		long now = System.currentTimeMillis();
+		Bucket bucket = refill(host, now);
+		bucket.blockedUntil = Math.max(bucket.blockedUntil, now + millis);
+		bucket.tokens = 0;
+	}
+
+	private Bucket refill(String host, long now) {
+		Bucket bucket = buckets.get(host);
+		if (bucket == null) {
+			bucket = new Bucket(burst, now);
+			buckets.put(host, bucket);
+			return bucket;
+		}
+
+		bucket.tokens = Math.min(burst, bucket.tokens + (now - bucket.refilledAt) * rate / 1000);
+		bucket.refilledAt = now;
+		return bucket;
+	}
+
+	private static class Bucket {
+		private double tokens;
+		private long refilledAt;
+		private long blockedUntil;
+
+		private Bucket(double tokens, long refilledAt) {
+			this.tokens = tokens;
+			this.refilledAt = refilledAt;
+		}
+	}
+}
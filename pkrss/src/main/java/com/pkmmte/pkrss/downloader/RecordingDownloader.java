@@ -0,0 +1,127 @@
+package com.pkmmte.pkrss.downloader;
+
+import android.util.Log;
+import com.pkmmte.pkrss.Request;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A Downloader which records every response of another Downloader into a local archive.
+ * <p>
+ * Each response's status code, headers and body are stored under {@link #toUrl(Request)}
+ * so a {@link ReplayDownloader} can serve them back later without any network. Bodies are
+ * stored decoded, exactly as the parser saw them. Responses to conditional, delta or range
+ * requests are passed through without being recorded, as their partial or empty bodies
+ * would replace the full response recorded for the same URL.
+ * <p>
+ * Retries, rate limiting and circuit breaking happen in this Downloader rather than the
+ * wrapped one, so configure them here.
+ */
+public class RecordingDownloader extends Downloader {
+	// Request headers asking for something other than the full response
+	private static final String[] PARTIAL_HEADERS = {"If-None-Match", "If-Modified-Since", "A-IM", "Range"};
+
+	private final Downloader downloader;
+	private final ResponseArchive archive;
+	private final BufferPool bufferPool = BufferPool.getDefault();
+
+	/**
+	 * @param downloader Downloader executing the actual requests.
+	 * @param archiveDir Directory in which to store recorded responses.
+	 */
+	public RecordingDownloader(Downloader downloader, File archiveDir) {
+		this.downloader = downloader;
+		this.archive = new ResponseArchive(archiveDir);
+	}
+
+	@Override
+	public boolean clearCache() {
+		// Recordings are not a cache and are left alone
+		return downloader.clearCache();
+	}
+
+	/**
+	 * Deletes every response recorded so far.
+	 * @return {@code true} if successful, {@code false} if otherwise.
+	 */
+	public boolean clearRecordings() {
+		return archive.clear();
+	}
+
+	@Override
+	public Response getStream(Request request) throws IllegalArgumentException, IOException {
+		if (isPartial(request))
+			return downloader.getStream(request);
+
+		Response response = downloader.getStream(request);
+		final PooledByteArrayOutputStream body = new PooledByteArrayOutputStream(bufferPool, 8192);
+		try {
+			body.readFrom(response.getStream());
+		} catch (IOException e) {
+			body.release();
+			throw e;
+		} finally {
+			response.close();
+		}
+
+		// Bodies are stored decoded so headers must describe the decoded body
+		Map<String, List<String>> headers = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+		headers.putAll(response.getHeaders());
+		headers.remove("Content-Encoding");
+		headers.put("Content-Length", Collections.singletonList(String.valueOf(body.size())));
+
+		// A failed recording shouldn't fail the load itself
+		String url = toUrl(request);
+		try {
+			long latency = response.getReceivedMillis() - response.getStartMillis();
+			archive.write(url, new ResponseArchive.Entry(response.getCode(), headers, latency, body.getBuffer(), body.size()));
+			log("Recorded " + body.size() + " bytes for " + url);
+		} catch (IOException e) {
+			log("Failed to record response for " + url + ": " + e.getMessage(), Log.WARN);
+		}
+
+		return new Response.Builder(body.toInputStream())
+			.code(response.getCode())
+			.headers(headers)
+			.fromCache(response.isFromCache())
+			.startMillis(response.getStartMillis())
+			.sentMillis(response.getSentMillis())
+			.receivedMillis(response.getReceivedMillis())
+			.connection(new Closeable() {
+				@Override
+				public void close() {
+					body.release();
+				}
+			})
+			.build();
+	}
+
+	/**
+	 * @return {@code true} if the response to the passed request may not be the full response.
+	 */
+	private static boolean isPartial(Request request) {
+		for (String name : request.headers.keySet()) {
+			for (String partial : PARTIAL_HEADERS) {
+				if (partial.equalsIgnoreCase(name))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public String toSafeUrl(Request request) {
+		return downloader.toSafeUrl(request);
+	}
+
+	@Override
+	public String toUrl(Request request) {
+		return downloader.toUrl(request);
+	}
+}
@@ -0,0 +1,160 @@
+package com.pkmmte.pkrss.downloader;
+
+import com.pkmmte.pkrss.Request;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * A Downloader serving responses previously recorded by a {@link RecordingDownloader}.
+ * <p>
+ * Never touches the network, which makes it possible to reproduce real refresh workloads
+ * on any machine and measure the load, parse and insert pipeline in isolation. Network
+ * conditions can be simulated through {@link #setLatency(long)} and {@link #setBandwidth(long)}.
+ * Requests which were never recorded fail with a {@link java.io.FileNotFoundException}.
+ */
+public class ReplayDownloader extends Downloader {
+	/** Latency value replaying each response with the latency it was recorded with. */
+	public static final long LATENCY_RECORDED = -1;
+
+	private final Downloader urlFormat;
+	private final ResponseArchive archive;
+	private volatile long latency = 0;
+	private volatile long bandwidth = 0;
+
+	/**
+	 * @param archiveDir Directory the responses were recorded into.
+	 * @param urlFormat Downloader the responses were recorded with. Only used to
+	 * build the same URLs and is never executed.
+	 */
+	public ReplayDownloader(File archiveDir, Downloader urlFormat) {
+		this.urlFormat = urlFormat;
+		this.archive = new ResponseArchive(archiveDir);
+
+		// Nothing goes over the network so there's no host to protect
+		setRateLimiter(null);
+		setAdaptiveTimeouts(null);
+	}
+
+	/**
+	 * @param latency Time in milliseconds to wait before serving each response, 0 to serve
+	 * them right away, or {@link #LATENCY_RECORDED} to wait as long as the recorded request took.
+	 */
+	public void setLatency(long latency) {
+		this.latency = latency;
+	}
+
+	/**
+	 * @param bandwidth Rate in bytes per second at which response bodies are served,
+	 * or 0 for no limit.
+	 */
+	public void setBandwidth(long bandwidth) {
+		this.bandwidth = bandwidth;
+	}
+
+	@Override
+	public boolean clearCache() {
+		// Nothing is ever cached
+		return true;
+	}
+
+	@Override
+	public Response getStream(Request request) throws IllegalArgumentException, IOException {
+		// Invalid URLs are a big no no
+		if (request.url == null || request.url.isEmpty()) {
+			throw new IllegalArgumentException("Invalid URL!");
+		}
+
+		long startMillis = System.currentTimeMillis();
+		String url = toUrl(request);
+		ResponseArchive.Entry entry = archive.read(url);
+
+		long latency = this.latency == LATENCY_RECORDED ? entry.latencyMillis : this.latency;
+		sleep(latency - (System.currentTimeMillis() - startMillis));
+		log("Replaying " + entry.length + " bytes for " + url);
+
+		long receivedMillis = System.currentTimeMillis();
+		InputStream inputStream = new ByteArrayInputStream(entry.body, 0, entry.length);
+		if (bandwidth > 0)
+			inputStream = new ThrottledInputStream(inputStream, bandwidth);
+
+		return new Response.Builder(inputStream)
+			.code(entry.code)
+			.headers(entry.headers)
+			.startMillis(startMillis)
+			.sentMillis(startMillis)
+			.receivedMillis(receivedMillis)
+			.build();
+	}
+
+	@Override
+	public String toSafeUrl(Request request) {
+		return urlFormat.toSafeUrl(request);
+	}
+
+	@Override
+	public String toUrl(Request request) {
+		return urlFormat.toUrl(request);
+	}
+
+	private static void sleep(long millis) throws InterruptedIOException {
+		if (millis <= 0)
+			return;
+
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while replaying response");
+		}
+	}
+
+	/**
+	 * Holds reads back so bytes come out no faster than the specified rate.
+	 */
+	private static class ThrottledInputStream extends FilterInputStream {
+		private final long bytesPerSecond;
+		private final long startMillis = System.currentTimeMillis();
+		private long read;
+
+		ThrottledInputStream(InputStream in, long bytesPerSecond) {
+			super(in);
+			this.bytesPerSecond = bytesPerSecond;
+		}
+
+		@Override
+		public int read() throws IOException {
+			throttle();
+			int b = super.read();
+			if (b != -1)
+				read++;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			throttle();
+
+			// Hand out at most a tenth of a second's worth at once to keep the rate smooth
+			int count = super.read(buffer, offset, (int) Math.min(length, Math.max(1, bytesPerSecond / 10)));
+			if (count > 0)
+				read += count;
+			return count;
+		}
+
+		@Override
+		public long skip(long count) throws IOException {
+			throttle();
+			long skipped = super.skip(count);
+			read += skipped;
+			return skipped;
+		}
+
+		private void throttle() throws InterruptedIOException {
+			sleep(read * 1000 / bytesPerSecond - (System.currentTimeMillis() - startMillis));
+		}
+	}
+}
@@ -0,0 +1,236 @@
+package com.pkmmte.pkrss.downloader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable response returned by a {@link Downloader} for a single request.
+ * <p>
+ * Each response owns its own connection, so a Downloader may be shared across
+ * concurrent loads. Always {@link #close()} a response once done reading its stream
+ * to release the connection back to its pool.
+ */
+public class Response implements Closeable {
+	private final InputStream source;
+	private final CountingInputStream stream;
+	private final CountingInputStream compressedStream;
+	private final int code;
+	private final Map<String, List<String>> headers;
+	private final boolean fromCache;
+	private final long startMillis;
+	private final long sentMillis;
+	private final long receivedMillis;
+	private final Closeable connection;
+
+	/* Hidden constructor */
+	private Response(Builder builder) {
+		this.source = builder.stream;
+		this.stream = new CountingInputStream(builder.stream);
+		this.compressedStream = builder.compressedStream;
+		this.code = builder.code;
+		this.headers = builder.headers;
+		this.fromCache = builder.fromCache;
+		this.startMillis = builder.startMillis;
+		this.sentMillis = builder.sentMillis;
+		this.receivedMillis = builder.receivedMillis;
+		this.connection = builder.connection;
+	}
+
+	/**
+	 * @return InputStream of the response body.
+	 */
+	public InputStream getStream() {
+		return stream;
+	}
+
+	/**
+	 * @return The whole response body as a read-only buffer if the {@link Downloader} has it
+	 * in memory already (e.g. a memory-mapped file), or null if it must be read from the stream.
+	 * Reading the buffer doesn't count towards {@link #getBytesRead()}.
+	 */
+	public ByteBuffer getByteBuffer() {
+		return source instanceof ByteBufferInputStream ? ((ByteBufferInputStream) source).getBuffer() : null;
+	}
+
+	/**
+	 * @return Number of response body bytes read so far, after decompression.
+	 */
+	public long getBytesRead() {
+		return stream.getCount();
+	}
+
+	/**
+	 * @return Number of bytes read so far as transferred over the wire, before decompression.
+	 * Returns -1 if the {@link Downloader} doesn't report it.
+	 */
+	public long getCompressedBytesRead() {
+		return compressedStream == null ? -1 : compressedStream.getCount();
+	}
+
+	/**
+	 * @return HTTP status code of this response or -1 if not applicable.
+	 */
+	public int getCode() {
+		return code;
+	}
+
+	/**
+	 * @return All response headers. Lookups are case insensitive.
+	 */
+	public Map<String, List<String>> getHeaders() {
+		return headers;
+	}
+
+	/**
+	 * @param name Case insensitive header name.
+	 * @return First value of the specified header or null if not present.
+	 */
+	public String getHeader(String name) {
+		List<String> values = headers.get(name);
+		return values == null || values.isEmpty() ? null : values.get(0);
+	}
+
+	/**
+	 * @return {@code true} if this response was served from the cache after it
+	 * expired, {@code false} if otherwise.
+	 */
+	public boolean isStale() {
+		List<String> warnings = headers.get("Warning");
+		if (warnings != null) {
+			for (String warning : warnings) {
+				if (warning.startsWith("110"))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return {@code true} if this response was served entirely from the cache
+	 * without touching the network.
+	 */
+	public boolean isFromCache() {
+		return fromCache;
+	}
+
+	/**
+	 * @return Time in milliseconds at which the request started, before connecting.
+	 */
+	public long getStartMillis() {
+		return startMillis;
+	}
+
+	/**
+	 * @return Time in milliseconds at which the request was sent, after connecting.
+	 */
+	public long getSentMillis() {
+		return sentMillis;
+	}
+
+	/**
+	 * @return Time in milliseconds at which the response headers were received.
+	 */
+	public long getReceivedMillis() {
+		return receivedMillis;
+	}
+
+	/**
+	 * Closes the response stream and releases its connection.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			stream.close();
+		} finally {
+			if (connection != null)
+				connection.close();
+		}
+	}
+
+	public static class Builder {
+		private InputStream stream;
+		private CountingInputStream compressedStream;
+		private int code;
+		private Map<String, List<String>> headers;
+		private boolean fromCache;
+		private long startMillis;
+		private long sentMillis;
+		private long receivedMillis;
+		private Closeable connection;
+
+		public Builder(InputStream stream) {
+			this.stream = stream;
+			this.compressedStream = null;
+			this.code = -1;
+			this.headers = Collections.emptyMap();
+			this.fromCache = false;
+			this.startMillis = 0;
+			this.sentMillis = 0;
+			this.receivedMillis = 0;
+			this.connection = null;
+		}
+
+		/**
+		 * @param compressedStream Counter of the raw bytes underlying the response stream,
+		 * if it is decompressed by the {@link Downloader}.
+		 */
+		public Builder compressedStream(CountingInputStream compressedStream) {
+			this.compressedStream = compressedStream;
+			return this;
+		}
+
+		public Builder code(int code) {
+			this.code = code;
+			return this;
+		}
+
+		public Builder headers(Map<String, List<String>> headers) {
+			Map<String, List<String>> map = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+			for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+				// HttpURLConnection maps the status line to a null key
+				if (entry.getKey() != null)
+					map.put(entry.getKey(), entry.getValue());
+			}
+			this.headers = Collections.unmodifiableMap(map);
+			return this;
+		}
+
+		public Builder fromCache(boolean fromCache) {
+			this.fromCache = fromCache;
+			return this;
+		}
+
+		public Builder startMillis(long startMillis) {
+			this.startMillis = startMillis;
+			return this;
+		}
+
+		public Builder sentMillis(long sentMillis) {
+			this.sentMillis = sentMillis;
+			return this;
+		}
+
+		public Builder receivedMillis(long receivedMillis) {
+			this.receivedMillis = receivedMillis;
+			return this;
+		}
+
+		/**
+		 * @param connection Closed along with the stream to release this response's connection.
+		 */
+		public Builder connection(Closeable connection) {
+			this.connection = connection;
+			return this;
+		}
+
+		public Response build() {
+			return new Response(this);
+		}
+	}
+}
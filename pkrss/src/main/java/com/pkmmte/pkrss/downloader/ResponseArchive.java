@@ -0,0 +1,148 @@
+package com.pkmmte.pkrss.downloader;
+
+import com.pkmmte.pkrss.Utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A directory of recorded responses, one file per URL.
+ * <p>
+ * Shared by {@link RecordingDownloader} and {@link ReplayDownloader}. Each file holds the
+ * status code, headers, original latency and decoded body of the last response recorded
+ * for its URL. Files are written to a temporary file first and renamed into place so
+ * a replay never sees a half written entry.
+ */
+class ResponseArchive {
+	private static final int MAGIC = 0x504b5241;
+	private static final int VERSION = 1;
+
+	private final File dir;
+
+	ResponseArchive(File dir) {
+		this.dir = dir;
+	}
+
+	/**
+	 * A single recorded response.
+	 */
+	static class Entry {
+		final int code;
+		final Map<String, List<String>> headers;
+		final long latencyMillis;
+		final byte[] body;
+		final int length;
+
+		Entry(int code, Map<String, List<String>> headers, long latencyMillis, byte[] body, int length) {
+			this.code = code;
+			this.headers = headers;
+			this.latencyMillis = latencyMillis;
+			this.body = body;
+			this.length = length;
+		}
+	}
+
+	/**
+	 * Stores the passed response, replacing any previous recording for the same URL.
+	 */
+	void write(String url, Entry entry) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Could not create archive directory " + dir);
+
+		File file = fileFor(url);
+		File temp = File.createTempFile(file.getName(), ".tmp", dir);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(url);
+			out.writeInt(entry.code);
+			out.writeLong(entry.latencyMillis);
+
+			out.writeInt(entry.headers.size());
+			for (Map.Entry<String, List<String>> header : entry.headers.entrySet()) {
+				out.writeUTF(header.getKey());
+				out.writeInt(header.getValue().size());
+				for (String value : header.getValue())
+					out.writeUTF(value == null ? "" : value);
+			}
+
+			out.writeInt(entry.length);
+			out.write(entry.body, 0, entry.length);
+		} finally {
+			out.close();
+		}
+
+		if (!temp.renameTo(file)) {
+			temp.delete();
+			throw new IOException("Could not write archive entry " + file);
+		}
+	}
+
+	/**
+	 * @return The response recorded for the passed URL.
+	 * @throws FileNotFoundException If no response was recorded for this URL.
+	 */
+	Entry read(String url) throws IOException {
+		File file = fileFor(url);
+		if (!file.isFile())
+			throw new FileNotFoundException("No recorded response for " + url);
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException("Unsupported archive entry " + file);
+			if (!url.equals(in.readUTF()))
+				throw new FileNotFoundException("No recorded response for " + url);
+
+			int code = in.readInt();
+			long latencyMillis = in.readLong();
+
+			Map<String, List<String>> headers = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+			for (int i = in.readInt(); i > 0; i--) {
+				String name = in.readUTF();
+				int count = in.readInt();
+				List<String> values = new ArrayList<String>(count);
+				for (int j = 0; j < count; j++)
+					values.add(in.readUTF());
+				headers.put(name, values);
+			}
+
+			byte[] body = new byte[in.readInt()];
+			in.readFully(body);
+			return new Entry(code, headers, latencyMillis, body, body.length);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Deletes every recorded response.
+	 * @return {@code true} if successful, {@code false} if otherwise.
+	 */
+	boolean clear() {
+		File[] files = dir.listFiles();
+		if (files == null)
+			return true;
+
+		boolean success = true;
+		for (File file : files)
+			success &= file.delete();
+		return success;
+	}
+
+	private File fileFor(String url) {
+		return new File(dir, Utils.md5Hex(url));
+	}
+}
@@ -0,0 +1,89 @@
+package com.pkmmte.pkrss.downloader;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Random;
+
+/**
+ * Decides whether and when a {@link Downloader} retries a failed request.
+ * <p>
+ * Delays grow exponentially with each attempt and are fully jittered, meaning the actual
+ * delay is a random value between zero and the exponential cap. This spreads out retries
+ * from many requests that failed at the same time.
+ */
+public class RetryPolicy {
+	public static final int DEFAULT_MAX_RETRIES = 2;
+	public static final long DEFAULT_BASE_DELAY = 1000;
+	public static final long DEFAULT_MAX_DELAY = 16000;
+
+	private final int maxRetries;
+	private final long baseDelay;
+	private final long maxDelay;
+	private final Random random = new Random();
+
+	public RetryPolicy() {
+		this(DEFAULT_MAX_RETRIES, DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY);
+	}
+
+	/**
+	 * @param maxRetries Maximum number of retries after the first attempt. 0 disables retries.
+	 * @param baseDelay Delay cap in milliseconds for the first retry.
+	 * @param maxDelay Delay cap in milliseconds for any retry.
+	 */
+	public RetryPolicy(int maxRetries, long baseDelay, long maxDelay) {
+		if (maxRetries < 0 || baseDelay < 0 || maxDelay < baseDelay)
+			throw new IllegalArgumentException("Invalid retry policy!");
+
+		this.maxRetries = maxRetries;
+		this.baseDelay = baseDelay;
+		this.maxDelay = maxDelay;
+	}
+
+	/**
+	 * @return Maximum number of retries after the first attempt.
+	 */
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	/**
+	 * @return Delay cap in milliseconds for any retry.
+	 */
+	public long getMaxDelay() {
+		return maxDelay;
+	}
+
+	/**
+	 * @param attempt Number of attempts which failed so far, starting at 1.
+	 * @return Time in milliseconds to wait before the next attempt.
+	 */
+	public long getDelay(int attempt) {
+		long cap = baseDelay << Math.min(attempt - 1, 30);
+		if (cap <= 0 || cap > maxDelay)
+			cap = maxDelay;
+
+		synchronized (random) {
+			return (long) (random.nextDouble() * cap);
+		}
+	}
+
+	/**
+	 * @param code HTTP status code of a response.
+	 * @return {@code true} if the status indicates a transient server error worth retrying.
+	 */
+	public boolean isTransient(int code) {
+		return code == 408 || code == 429 || code == 500 || code == 502 || code == 503 || code == 504;
+	}
+
+	/**
+	 * Only network failures are worth retrying, such as timeouts, refused or reset connections
+	 * and failed DNS lookups. Anything else, such as SSL errors or missing files, fails again.
+	 * @param e Exception thrown while executing a request.
+	 * @return {@code true} if the request may succeed when retried.
+	 */
+	public boolean isTransient(IOException e) {
+		return e instanceof SocketTimeoutException || e instanceof SocketException || e instanceof UnknownHostException;
+	}
+}